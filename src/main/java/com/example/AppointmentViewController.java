@@ -19,18 +19,23 @@ import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 public class AppointmentViewController {
     private CustomerManager customerManager;
+    // Mutations go through here, off the FX thread
+    private final AsyncCustomerManager asyncManager;
     private BorderPane mainView;
     private TableView<CustomerManager.Appointment> appointmentTable;
     private ObservableList<CustomerManager.Appointment> appointmentList;
     private ComboBox<LocalDate> dateFilterComboBox;
     private ComboBox<CustomerManager.Customer> customerFilterComboBox;
 
-    public AppointmentViewController(CustomerManager customerManager) {
-        this.customerManager = customerManager;
+    public AppointmentViewController(AsyncCustomerManager asyncManager) {
+        this.asyncManager = asyncManager;
+        this.customerManager = asyncManager.getCustomerManager();
         this.appointmentList = FXCollections.observableArrayList();
         createView();
         refreshData();
@@ -70,7 +75,7 @@ public class AppointmentViewController {
         // Customer filter
         customerFilterComboBox = new ComboBox<>();
         customerFilterComboBox.setPromptText("Filter by Customer");
-        refreshCustomerFilter(); // Load customer data
+        CustomerPicker.install(customerFilterComboBox, customerManager);
 
         customerFilterComboBox.setOnAction(e -> {
             if (customerFilterComboBox.getValue() != null) {
@@ -164,7 +169,8 @@ public class AppointmentViewController {
         editBtn.setOnAction(e -> {
             CustomerManager.Appointment selected = appointmentTable.getSelectionModel().getSelectedItem();
             if (selected != null) {
-                showAppointmentDialog(selected);
+                // The table may show snapshot copies; edit the stored appointment
+                editAppointment(selected, this::showAppointmentDialog);
             } else {
                 showAlert(Alert.AlertType.WARNING, "No Selection",
                         "Please select an appointment to edit.");
@@ -177,8 +183,13 @@ public class AppointmentViewController {
             if (selected != null) {
                 if (showConfirmation("Delete Appointment",
                         "Are you sure you want to delete this appointment?")) {
-                    customerManager.deleteAppointment(selected.getId());
-                    refreshData();
+                    asyncManager.deleteAppointment(selected.getId()).thenAccept(deleted -> {
+                        if (!deleted) {
+                            showAlert(Alert.AlertType.ERROR, "Delete Failed",
+                                    "This appointment has invoices, so it can't be deleted.");
+                        }
+                        refreshData();
+                    });
                 }
             } else {
                 showAlert(Alert.AlertType.WARNING, "No Selection",
@@ -190,7 +201,7 @@ public class AppointmentViewController {
         changeStatusBtn.setOnAction(e -> {
             CustomerManager.Appointment selected = appointmentTable.getSelectionModel().getSelectedItem();
             if (selected != null) {
-                showStatusChangeDialog(selected);
+                editAppointment(selected, this::showStatusChangeDialog);
             } else {
                 showAlert(Alert.AlertType.WARNING, "No Selection",
                         "Please select an appointment to change status.");
@@ -207,44 +218,24 @@ public class AppointmentViewController {
 
     public void refreshData() {
         appointmentList.clear();
-        appointmentList.addAll(customerManager.getAllAppointments());
+        appointmentList.addAll(customerManager.snapshot().getAllAppointments());
         refreshCustomerFilter();
     }
 
-    private void refreshCustomerFilter() {
-        customerFilterComboBox.getItems().clear();
-        customerFilterComboBox.getItems().addAll(customerManager.getAllCustomers());
-
-        // Setup cell factory to display customer names
-        customerFilterComboBox.setCellFactory(new Callback<ListView<CustomerManager.Customer>, ListCell<CustomerManager.Customer>>() {
-            @Override
-            public ListCell<CustomerManager.Customer> call(ListView<CustomerManager.Customer> param) {
-                return new ListCell<CustomerManager.Customer>() {
-                    @Override
-                    protected void updateItem(CustomerManager.Customer item, boolean empty) {
-                        super.updateItem(item, empty);
-                        if (empty || item == null) {
-                            setText(null);
-                        } else {
-                            setText(item.getFullName());
-                        }
-                    }
-                };
-            }
-        });
+    private void editAppointment(CustomerManager.Appointment selected, Consumer<CustomerManager.Appointment> editor) {
+        CustomerManager.Appointment appointment = customerManager.getAppointment(selected.getId());
+        if (appointment != null) {
+            // The dialogs edit a copy, saved only if nobody else saved the appointment meanwhile
+            editor.accept(appointment.copy());
+        } else {
+            showAlert(Alert.AlertType.WARNING, "Appointment Deleted",
+                    "This appointment has been deleted.");
+            refreshData();
+        }
+    }
 
-        // Set button cell to display selected customer name
-        customerFilterComboBox.setButtonCell(new ListCell<CustomerManager.Customer>() {
-            @Override
-            protected void updateItem(CustomerManager.Customer item, boolean empty) {
-                super.updateItem(item, empty);
-                if (empty || item == null) {
-                    setText("Filter by Customer");
-                } else {
-                    setText(item.getFullName());
-                }
-            }
-        });
+    private void refreshCustomerFilter() {
+        CustomerPicker.refresh(customerFilterComboBox, customerManager);
     }
 
     private Callback<ListView<LocalDate>, ListCell<LocalDate>> getDateCellFactory() {
@@ -270,7 +261,7 @@ public class AppointmentViewController {
 
     private void filterAppointmentsByDate(LocalDate date) {
         appointmentList.clear();
-        appointmentList.addAll(customerManager.getAppointmentsByDate(date));
+        appointmentList.addAll(customerManager.getAppointmentsOn(date));
     }
 
     private void filterAppointmentsByCustomer(String customerId) {
@@ -297,23 +288,8 @@ public class AppointmentViewController {
 
         // Customer selection
         ComboBox<CustomerManager.Customer> customerCombo = new ComboBox<>();
-        customerCombo.getItems().addAll(customerManager.getAllCustomers());
-        customerCombo.setCellFactory(new Callback<ListView<CustomerManager.Customer>, ListCell<CustomerManager.Customer>>() {
-            @Override
-            public ListCell<CustomerManager.Customer> call(ListView<CustomerManager.Customer> param) {
-                return new ListCell<CustomerManager.Customer>() {
-                    @Override
-                    protected void updateItem(CustomerManager.Customer item, boolean empty) {
-                        super.updateItem(item, empty);
-                        if (empty || item == null) {
-                            setText(null);
-                        } else {
-                            setText(item.getFullName());
-                        }
-                    }
-                };
-            }
-        });
+        customerCombo.setPromptText("Type a name, email or phone");
+        CustomerPicker.install(customerCombo, customerManager);
 
 
         // Date picker
@@ -406,13 +382,7 @@ public class AppointmentViewController {
 
         // Set initial values if editing existing appointment
         if (appointment != null) {
-            // Find and select the customer
-            for (CustomerManager.Customer customer : customerCombo.getItems()) {
-                if (customer.getId().equals(appointment.getCustomerId())) {
-                    customerCombo.setValue(customer);
-                    break;
-                }
-            }
+            customerCombo.setValue(customerManager.getCustomer(appointment.getCustomerId()));
 
             datePicker.setValue(appointment.getDateTime().toLocalDate());
             timePicker.setValue(appointment.getDateTime().toLocalTime());
@@ -466,12 +436,17 @@ public class AppointmentViewController {
         // Show the dialog and process the result
         Optional<CustomerManager.Appointment> result = dialog.showAndWait();
         result.ifPresent(newAppointment -> {
-            if (appointment == null) {
-                customerManager.addAppointment(newAppointment);
-            } else {
-                customerManager.updateAppointment(newAppointment);
-            }
-            refreshData();
+            CompletableFuture<?> saving = appointment == null
+                    ? asyncManager.addAppointment(newAppointment)
+                    : asyncManager.compareAndSetAppointment(newAppointment);
+            saving.whenComplete((saved, error) -> {
+                if (AsyncCustomerManager.isStaleVersion(error)) {
+                    showAlert(Alert.AlertType.WARNING, "Appointment Changed",
+                            "This appointment was changed by someone else while you were editing, "
+                                    + "so your changes weren't saved. Open it again to see the latest details.");
+                }
+                refreshData();
+            });
         });
     }
 
@@ -502,11 +477,19 @@ public class AppointmentViewController {
         });
 
         Optional<String> result = dialog.showAndWait();
-        result.ifPresent(newStatus -> {
-            appointment.setStatus(newStatus);
-            customerManager.updateAppointment(appointment);
-            refreshData();
-        });
+        // Only the status changes, so it is applied to the latest appointment rather than
+        // failing if someone else saved it in the meantime
+        result.ifPresent(newStatus -> asyncManager.editAppointment(appointment.getId(), a -> a.setStatus(newStatus))
+                .whenComplete((saved, error) -> {
+                    if (error == null && saved == null) {
+                        showAlert(Alert.AlertType.WARNING, "Appointment Deleted",
+                                "This appointment has been deleted.");
+                    } else if (AsyncCustomerManager.isStaleVersion(error)) {
+                        showAlert(Alert.AlertType.WARNING, "Appointment Busy",
+                                "This appointment is being changed by someone else. Please try again.");
+                    }
+                    refreshData();
+                }));
     }
 
     private void showAlert(Alert.AlertType alertType, String title, String content) {
@@ -0,0 +1,183 @@
+package com.example;
+
+import javafx.application.Platform;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Runs the CustomerManager operations that can touch the disk (loading, every mutation,
+ * saving) on a background thread, so the JavaFX Application Thread never waits for I/O.
+ *
+ * Each method returns at once with a CompletableFuture that completes on the FX thread,
+ * so thenAccept() and friends can update controls directly. Operations run one at a
+ * time in the order they were called. Reads are in memory and never wait for writers,
+ * so controllers still make them on getCustomerManager() directly.
+ */
+public class AsyncCustomerManager {
+    private final CustomerManager customerManager;
+    private final ExecutorService executor;
+
+    private AsyncCustomerManager(CustomerManager customerManager, ExecutorService executor) {
+        this.customerManager = customerManager;
+        this.executor = executor;
+    }
+
+    /**
+     * Loads the data in the background. The future fails only if the manager can't be
+     * created at all; when a data file is damaged it completes with a manager whose
+     * isLoadFailed() is true, so the caller can offer to restore a backup.
+     *
+     * @param progress called on the FX thread with (steps done, CustomerManager.LOAD_STEPS)
+     */
+    public static CompletableFuture<AsyncCustomerManager> open(BiConsumer<Integer, Integer> progress) {
+        ExecutorService executor = Executors.newSingleThreadExecutor(task -> {
+            Thread thread = new Thread(task, "crm-io");
+            thread.setDaemon(true);
+            return thread;
+        });
+        CompletableFuture<AsyncCustomerManager> opening = CompletableFuture.supplyAsync(() -> {
+            CustomerManager manager = new CustomerManager(
+                    (done, total) -> Platform.runLater(() -> progress.accept(done, total)));
+            return new AsyncCustomerManager(manager, executor);
+        }, executor);
+        opening.whenComplete((manager, error) -> {
+            if (error != null) executor.shutdown();
+        });
+        return onFxThread(opening, "loading data");
+    }
+
+    public CustomerManager getCustomerManager() {
+        return customerManager;
+    }
+
+    public CompletableFuture<String> addCustomer(CustomerManager.Customer customer) {
+        return submit("adding customer", () -> customerManager.addCustomer(customer));
+    }
+
+    public CompletableFuture<Boolean> updateCustomer(CustomerManager.Customer customer) {
+        return submit("updating customer", () -> customerManager.updateCustomer(customer));
+    }
+
+    /**
+     * Saves an edited copy of a customer. Fails with StaleVersionException (wrapped in a
+     * CompletionException) if someone else saved the customer after the copy was taken.
+     */
+    public CompletableFuture<Boolean> compareAndSetCustomer(CustomerManager.Customer customer) {
+        return submit("saving customer", () -> customerManager.compareAndSetCustomer(customer));
+    }
+
+    public CompletableFuture<Boolean> deleteCustomer(String customerId) {
+        return submit("deleting customer", () -> customerManager.deleteCustomer(customerId));
+    }
+
+    public CompletableFuture<String> addAppointment(CustomerManager.Appointment appointment) {
+        return submit("adding appointment", () -> customerManager.addAppointment(appointment));
+    }
+
+    public CompletableFuture<Boolean> updateAppointment(CustomerManager.Appointment appointment) {
+        return submit("updating appointment", () -> customerManager.updateAppointment(appointment));
+    }
+
+    public CompletableFuture<Boolean> compareAndSetAppointment(CustomerManager.Appointment appointment) {
+        return submit("saving appointment", () -> customerManager.compareAndSetAppointment(appointment));
+    }
+
+    // Null if the appointment is gone
+    public CompletableFuture<CustomerManager.Appointment> editAppointment(String appointmentId,
+                                                                           Consumer<CustomerManager.Appointment> edit) {
+        return submit("editing appointment", () -> customerManager.editAppointment(appointmentId, edit));
+    }
+
+    public CompletableFuture<Boolean> deleteAppointment(String appointmentId) {
+        return submit("deleting appointment", () -> customerManager.deleteAppointment(appointmentId));
+    }
+
+    public CompletableFuture<String> addService(CustomerManager.Service service) {
+        return submit("adding service", () -> customerManager.addService(service));
+    }
+
+    public CompletableFuture<Boolean> updateService(CustomerManager.Service service) {
+        return submit("updating service", () -> customerManager.updateService(service));
+    }
+
+    public CompletableFuture<Boolean> compareAndSetService(CustomerManager.Service service) {
+        return submit("saving service", () -> customerManager.compareAndSetService(service));
+    }
+
+    public CompletableFuture<Boolean> deleteService(String serviceId) {
+        return submit("deleting service", () -> customerManager.deleteService(serviceId));
+    }
+
+    public CompletableFuture<String> createInvoice(String customerId, List<String> serviceIds, String appointmentId) {
+        return submit("creating invoice", () -> customerManager.createInvoice(customerId, serviceIds, appointmentId));
+    }
+
+    public CompletableFuture<Boolean> updateInvoiceStatus(String invoiceId, String status) {
+        return submit("updating invoice", () -> customerManager.updateInvoiceStatus(invoiceId, status));
+    }
+
+    public CompletableFuture<Boolean> restoreBackup(String generation) {
+        return submit("restoring backup", () -> customerManager.restoreBackup(generation));
+    }
+
+    public CompletableFuture<Boolean> saveData() {
+        return submit("saving data", customerManager::saveData);
+    }
+
+    /**
+     * Finishes the queued operations, then closes the manager. Blocks, since it is
+     * meant for application shutdown, after the last frame.
+     */
+    public void close() {
+        executor.submit(customerManager::close);
+        executor.shutdown();
+        try {
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private <T> CompletableFuture<T> submit(String description, Supplier<T> operation) {
+        return onFxThread(CompletableFuture.supplyAsync(operation, executor), description);
+    }
+
+    /**
+     * @return whether a failed operation failed because its record had been saved by
+     *         someone else, as opposed to an I/O or other error
+     */
+    public static boolean isStaleVersion(Throwable error) {
+        if (error instanceof CompletionException && error.getCause() != null) {
+            error = error.getCause();
+        }
+        return error instanceof StaleVersionException;
+    }
+
+    // Logs failures and hands the outcome to the FX thread
+    private static <T> CompletableFuture<T> onFxThread(CompletableFuture<T> operation, String description) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        operation.whenComplete((value, error) -> {
+            if (error != null) {
+                System.err.println("Error " + description + ": " + error.getMessage());
+                // A lost compare-and-set is the caller's to report, not a bug
+                if (!isStaleVersion(error)) error.printStackTrace();
+            }
+            Platform.runLater(() -> {
+                if (error != null) {
+                    result.completeExceptionally(error);
+                } else {
+                    result.complete(value);
+                }
+            });
+        });
+        return result;
+    }
+}
@@ -1,36 +1,122 @@
 package com.example;
 
+import javafx.animation.Animation;
+import javafx.animation.KeyFrame;
+import javafx.animation.Timeline;
 import javafx.application.Application;
 import javafx.geometry.Insets;
+import javafx.geometry.Pos;
 import javafx.scene.Scene;
 import javafx.scene.control.*;
 import javafx.scene.layout.BorderPane;
+import javafx.scene.layout.HBox;
 import javafx.scene.layout.VBox;
 import javafx.stage.Stage;
+import javafx.util.Duration;
+
+import java.util.List;
 
 public class AutoDetailCRM extends Application {
-    private CustomerManager customerManager;
+    private AsyncCustomerManager customerManager;
+    private JobService jobService;
     private Stage primaryStage;
+    private Label saveStatusLabel;
+    private Timeline saveStatusTimer;
 
     // Controllers for different sections
     private CustomerViewController customerViewController;
     private AppointmentViewController appointmentViewController;
     private ServiceViewController serviceViewController;
     private InvoiceViewController invoiceViewController;
+    private JobsViewController jobsViewController;
 
     @Override
     public void start(Stage primaryStage) {
         this.primaryStage = primaryStage;
-        customerManager = new CustomerManager();
+
+        // Show the window straight away and load the data in the background
+        ProgressBar progressBar = new ProgressBar(ProgressBar.INDETERMINATE_PROGRESS);
+        progressBar.setPrefWidth(300);
+        Label statusLabel = new Label("Loading data...");
+        VBox loadingView = new VBox(10, statusLabel, progressBar);
+        loadingView.setAlignment(Pos.CENTER);
+
+        Scene scene = new Scene(loadingView, 1200, 700);
+        primaryStage.setTitle("Auto Detailing CRM");
+        primaryStage.setScene(scene);
+        primaryStage.show();
+
+        // Collections finish loading in parallel, so their reports can arrive out of order
+        AsyncCustomerManager.open((done, total) ->
+                        progressBar.setProgress(Math.max(progressBar.getProgress(), (double) done / total)))
+                .thenAccept(manager -> {
+                    if (manager.getCustomerManager().isLoadFailed()) {
+                        showLoadFailed(manager, loadingView, statusLabel, progressBar);
+                    } else {
+                        showMainView(manager);
+                    }
+                })
+                .exceptionally(e -> {
+                    Throwable cause = e.getCause() != null ? e.getCause() : e;
+                    statusLabel.setText("Could not load data: " + cause.getMessage());
+                    progressBar.setVisible(false);
+                    return null;
+                });
+    }
+
+    // Nothing is saved while the load has failed, so offer a backup before the main view
+    private void showLoadFailed(AsyncCustomerManager manager, VBox loadingView, Label statusLabel,
+                                ProgressBar progressBar) {
+        this.customerManager = manager;
+        progressBar.setVisible(false);
+        statusLabel.setText("Some data files are damaged and could not be loaded. "
+                + "Nothing will be saved until a backup is restored.");
+
+        List<String> generations = manager.getCustomerManager().listBackups();
+        ComboBox<String> backupCombo = new ComboBox<>();
+        backupCombo.getItems().addAll(generations);
+        if (!generations.isEmpty()) {
+            backupCombo.setValue(generations.get(generations.size() - 1));
+        }
+        backupCombo.setPromptText("No backups found");
+
+        Button restoreBtn = new Button("Restore Backup");
+        restoreBtn.disableProperty().bind(backupCombo.valueProperty().isNull());
+        restoreBtn.setOnAction(e -> {
+            restoreBtn.disableProperty().unbind();
+            restoreBtn.setDisable(true);
+            statusLabel.setText("Restoring " + backupCombo.getValue() + "...");
+            manager.restoreBackup(backupCombo.getValue()).whenComplete((restored, error) -> {
+                if (error == null && restored && !manager.getCustomerManager().isLoadFailed()) {
+                    showMainView(manager);
+                } else {
+                    statusLabel.setText("Restoring " + backupCombo.getValue() + " failed; see the log.");
+                    restoreBtn.disableProperty().bind(backupCombo.valueProperty().isNull());
+                }
+            });
+        });
+
+        Button openBtn = new Button("Open Without Saving");
+        openBtn.setOnAction(e -> showMainView(manager));
+
+        HBox actions = new HBox(10, backupCombo, restoreBtn, openBtn);
+        actions.setAlignment(Pos.CENTER);
+        loadingView.getChildren().add(actions);
+    }
+
+    private void showMainView(AsyncCustomerManager customerManager) {
+        this.customerManager = customerManager;
+        jobService = new JobService();
 
         // Add sample data for testing
-        //customerManager.addSampleData();
+        //customerManager.getCustomerManager().addSampleData();
 
         // Initialize controllers
         customerViewController = new CustomerViewController(customerManager);
         appointmentViewController = new AppointmentViewController(customerManager);
         serviceViewController = new ServiceViewController(customerManager);
         invoiceViewController = new InvoiceViewController(customerManager);
+        jobsViewController = new JobsViewController(customerManager, jobService);
 
         // Create the main UI layout
         BorderPane mainLayout = new BorderPane();
@@ -38,11 +124,40 @@ public class AutoDetailCRM extends Application {
 
         // Start with customer view
         mainLayout.setCenter(customerViewController.getView());
+        primaryStage.getScene().setRoot(mainLayout);
 
-        Scene scene = new Scene(mainLayout, 1200, 700);
-        primaryStage.setTitle("Auto Detailing CRM");
-        primaryStage.setScene(scene);
-        primaryStage.show();
+        // The writer saves in the background, so its failures only show up here
+        updateSaveStatus();
+        saveStatusTimer = new Timeline(new KeyFrame(Duration.seconds(2), e -> updateSaveStatus()));
+        saveStatusTimer.setCycleCount(Animation.INDEFINITE);
+        saveStatusTimer.play();
+    }
+
+    private void updateSaveStatus() {
+        CustomerManager manager = customerManager.getCustomerManager();
+        if (manager.isLoadFailed()) {
+            saveStatusLabel.setText("Not saving: data failed to load");
+            saveStatusLabel.setStyle("-fx-text-fill: #c00000;");
+        } else if (!manager.isLastSaveOk()) {
+            saveStatusLabel.setText("Saving failed, retrying");
+            saveStatusLabel.setStyle("-fx-text-fill: #c00000;");
+        } else {
+            saveStatusLabel.setText("Saving normally");
+            saveStatusLabel.setStyle("");
+        }
+    }
+
+    @Override
+    public void stop() {
+        if (saveStatusTimer != null) {
+            saveStatusTimer.stop();
+        }
+        if (jobService != null) {
+            jobService.close();
+        }
+        if (customerManager != null) {
+            customerManager.close();
+        }
     }
 
     private VBox createNavigationMenu() {
@@ -67,13 +182,23 @@ public class AutoDetailCRM extends Application {
         invoicesBtn.setPrefWidth(130);
         invoicesBtn.setOnAction(e -> switchView("invoices"));
 
+        Button jobsBtn = new Button("Jobs");
+        jobsBtn.setPrefWidth(130);
+        jobsBtn.setOnAction(e -> switchView("jobs"));
+
+        saveStatusLabel = new Label();
+        saveStatusLabel.setWrapText(true);
+
         navigationMenu.getChildren().addAll(
                 new Label("Auto Detailing CRM"),
                 new Separator(),
                 customersBtn,
                 appointmentsBtn,
                 servicesBtn,
-                invoicesBtn
+                invoicesBtn,
+                jobsBtn,
+                new Separator(),
+                saveStatusLabel
         );
 
         return navigationMenu;
@@ -97,6 +222,10 @@ public class AutoDetailCRM extends Application {
                 mainLayout.setCenter(invoiceViewController.getView());
                 invoiceViewController.refreshData(); // Refresh invoice data
                 break;
+            case "jobs":
+                mainLayout.setCenter(jobsViewController.getView());
+                jobsViewController.refreshData(); // Update run times
+                break;
         }
     }
 
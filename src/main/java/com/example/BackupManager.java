@@ -0,0 +1,309 @@
+package com.example;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Incremental backups of the data directory.
+ *
+ * Each backup is a generation directory under the backup root holding a copy of every
+ * data file plus a manifest of their sizes, modification times and SHA-256 hashes.
+ * A file whose size and modification time match the previous generation's manifest is
+ * hard-linked from that generation instead of being read at all; a file whose contents
+ * hash the same is linked too. Only changed files are copied, using FileChannel.transferTo
+ * so the bytes never pass through the Java heap. Backup files are never modified after
+ * they are written, which is what makes sharing them between generations safe.
+ */
+public class BackupManager {
+    private static final String MANIFEST_FILE = "manifest.txt";
+    private static final String PARTIAL_SUFFIX = ".partial";
+    private static final DateTimeFormatter GENERATION_FORMAT = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss-SSS");
+    private static final int BUFFER_SIZE = 256 * 1024;
+
+    private final Path root;
+
+    BackupManager(Path root) {
+        this.root = root;
+    }
+
+    /**
+     * What a backup did
+     */
+    public static class Generation {
+        private final String name;
+        private final int filesCopied;
+        private final int filesLinked;
+        private final long bytesCopied;
+        private final long elapsedNanos;
+
+        Generation(String name, int filesCopied, int filesLinked, long bytesCopied, long elapsedNanos) {
+            this.name = name;
+            this.filesCopied = filesCopied;
+            this.filesLinked = filesLinked;
+            this.bytesCopied = bytesCopied;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        public String getName() { return name; }
+        public int getFilesCopied() { return filesCopied; }
+        public int getFilesLinked() { return filesLinked; }
+        public long getBytesCopied() { return bytesCopied; }
+        public long getElapsedMillis() { return elapsedNanos / 1_000_000; }
+
+        @Override
+        public String toString() {
+            return String.format("%s: copied %d files (%d bytes), linked %d unchanged files in %d ms",
+                    name, filesCopied, bytesCopied, filesLinked, getElapsedMillis());
+        }
+    }
+
+    // One line of a manifest
+    private static class Entry {
+        final String name;
+        final long size;
+        final long modified;
+        final String hash;
+
+        Entry(String name, long size, long modified, String hash) {
+            this.name = name;
+            this.size = size;
+            this.modified = modified;
+            this.hash = hash;
+        }
+    }
+
+    /**
+     * Backs up the given files (missing ones are skipped) into a new generation.
+     * The generation only becomes visible once every file and the manifest are in place.
+     */
+    Generation backup(List<Path> files) throws IOException {
+        long start = System.nanoTime();
+        Files.createDirectories(root);
+
+        String previousName = latest();
+        Path previousDirectory = previousName == null ? null : root.resolve(previousName);
+        Map<String, Entry> previous = Collections.emptyMap();
+        if (previousName != null) {
+            try {
+                previous = readManifest(previousDirectory);
+            } catch (IOException e) {
+                // Nothing can be linked from it, but a full copy still makes a good backup
+                System.err.println("Copying every file: " + e.getMessage());
+            }
+        }
+
+        String name = newGenerationName();
+        Path partial = root.resolve(name + PARTIAL_SUFFIX);
+        Files.createDirectories(partial);
+
+        List<Entry> entries = new ArrayList<>();
+        int copied = 0, linked = 0;
+        long bytesCopied = 0;
+        for (Path file : files) {
+            if (!Files.exists(file)) continue;
+            String fileName = file.getFileName().toString();
+            long size = Files.size(file);
+            long modified = Files.getLastModifiedTime(file).toMillis();
+            Path target = partial.resolve(fileName);
+
+            Entry old = previous.get(fileName);
+            if (old != null && old.size == size && old.modified == modified
+                    && link(previousDirectory.resolve(fileName), target)) {
+                // Quick check: same size and timestamp, so don't even read it
+                entries.add(old);
+                linked++;
+                continue;
+            }
+
+            String hash = hash(file);
+            if (old != null && old.hash.equals(hash) && link(previousDirectory.resolve(fileName), target)) {
+                linked++;
+            } else {
+                bytesCopied += transfer(file, target);
+                copied++;
+            }
+            entries.add(new Entry(fileName, size, modified, hash));
+        }
+
+        writeManifest(partial, entries);
+        Files.move(partial, root.resolve(name), StandardCopyOption.ATOMIC_MOVE);
+        return new Generation(name, copied, linked, bytesCopied, System.nanoTime() - start);
+    }
+
+    /**
+     * @return the names of every complete generation, oldest first
+     */
+    List<String> list() throws IOException {
+        List<String> names = new ArrayList<>();
+        if (!Files.isDirectory(root)) return names;
+        try (DirectoryStream<Path> directories = Files.newDirectoryStream(root)) {
+            for (Path directory : directories) {
+                String name = directory.getFileName().toString();
+                if (!name.endsWith(PARTIAL_SUFFIX) && Files.exists(directory.resolve(MANIFEST_FILE))) {
+                    names.add(name);
+                }
+            }
+        }
+        Collections.sort(names);
+        return names;
+    }
+
+    /**
+     * Copies every file of a generation into the target directory, replacing what is there.
+     * Every file is first copied next to its target and its SHA-256 checked against the
+     * manifest; only once all of them have passed are they renamed into place, so a damaged
+     * backup leaves the directory as it was.
+     *
+     * @return the restored files
+     */
+    List<Path> restore(String name, Path targetDirectory) throws IOException {
+        Path directory = root.resolve(name);
+        Map<String, Entry> manifest = readManifest(directory);
+        if (manifest.isEmpty()) {
+            throw new IOException("No backup named " + name);
+        }
+
+        // Staged copy -> the file it replaces
+        Map<Path, Path> staged = new LinkedHashMap<>();
+        try {
+            for (Entry entry : manifest.values()) {
+                Path file = directory.resolve(entry.name);
+                if (!Files.exists(file) || Files.size(file) != entry.size) {
+                    throw new IOException("Backup file " + file + " is missing or damaged");
+                }
+                Path tmp = targetDirectory.resolve(entry.name + ".restore");
+                staged.put(tmp, targetDirectory.resolve(entry.name));
+                transfer(file, tmp);
+                // The copy is hashed, so what is checked is exactly what gets moved into place
+                if (!hash(tmp).equals(entry.hash)) {
+                    throw new IOException("Backup file " + file + " doesn't match its manifest hash");
+                }
+            }
+        } catch (IOException e) {
+            for (Path tmp : staged.keySet()) {
+                try {
+                    Files.deleteIfExists(tmp);
+                } catch (IOException cleanup) {
+                    e.addSuppressed(cleanup);
+                }
+            }
+            throw e;
+        }
+
+        List<Path> restored = new ArrayList<>();
+        for (Map.Entry<Path, Path> file : staged.entrySet()) {
+            Files.move(file.getKey(), file.getValue(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            restored.add(file.getValue());
+        }
+        return restored;
+    }
+
+    /**
+     * Copies a file with FileChannel.transferTo and forces it to disk.
+     *
+     * @return the number of bytes copied
+     */
+    static long transfer(Path source, Path target) throws IOException {
+        try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(target, StandardOpenOption.CREATE,
+                     StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            long size = in.size();
+            long position = 0;
+            while (position < size) {
+                position += in.transferTo(position, size - position, out);
+            }
+            out.force(true);
+            return size;
+        }
+    }
+
+    // Returns false if hard links aren't supported here, so the caller copies instead
+    private static boolean link(Path existing, Path link) {
+        try {
+            Files.createLink(link, existing);
+            return true;
+        } catch (IOException | UnsupportedOperationException e) {
+            return false;
+        }
+    }
+
+    private String latest() throws IOException {
+        List<String> names = list();
+        return names.isEmpty() ? null : names.get(names.size() - 1);
+    }
+
+    private String newGenerationName() {
+        String base = LocalDateTime.now().format(GENERATION_FORMAT);
+        String name = base;
+        for (int i = 2; Files.exists(root.resolve(name)) || Files.exists(root.resolve(name + PARTIAL_SUFFIX)); i++) {
+            name = base + "-" + i;
+        }
+        return name;
+    }
+
+    private static void writeManifest(Path directory, List<Entry> entries) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for (Entry entry : entries) {
+            sb.append(RecordTokenizer.escape(entry.name)).append('|')
+                    .append(entry.size).append('|')
+                    .append(entry.modified).append('|')
+                    .append(entry.hash).append('\n');
+        }
+        SnapshotFiles.write(directory.resolve(MANIFEST_FILE), sb);
+    }
+
+    private static Map<String, Entry> readManifest(Path directory) throws IOException {
+        Map<String, Entry> entries = new HashMap<>();
+        String contents = SnapshotFiles.read(directory.resolve(MANIFEST_FILE));
+        if (contents == null) return entries;
+
+        RecordTokenizer fields = new RecordTokenizer();
+        for (String line : contents.split("\n")) {
+            if (line.isEmpty()) continue;
+            fields.reset(line);
+            if (fields.fieldCount() < 4) continue;
+            try {
+                Entry entry = new Entry(fields.next(), Long.parseLong(fields.next()),
+                        Long.parseLong(fields.next()), fields.next());
+                entries.put(entry.name, entry);
+            } catch (NumberFormatException e) {
+                System.err.println("Skipping bad manifest line in " + directory + ": " + line);
+            }
+        }
+        return entries;
+    }
+
+    private static String hash(Path file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException("SHA-256 is not available", e);
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+            while (channel.read(buffer) > 0) {
+                buffer.flip();
+                digest.update(buffer);
+                buffer.clear();
+            }
+        }
+        StringBuilder hex = new StringBuilder();
+        for (byte b : digest.digest()) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+}
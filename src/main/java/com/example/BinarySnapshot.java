@@ -0,0 +1,332 @@
+package com.example;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Compact binary snapshot format for the four record types, as an alternative to
+ * the pipe-delimited text files.
+ *
+ * Layout: magic, version, type code and record count, then the records, then a CRC32
+ * of the record bytes. Strings are length-prefixed UTF-8 (length -1 for null),
+ * timestamps are epoch seconds and money is stored as a long number of cents.
+ * Files are loaded through a MappedByteBuffer so there is no line splitting or date parsing.
+ */
+class BinarySnapshot {
+    private static final int MAGIC = 0x4143524D; // "ACRM"
+    private static final short VERSION = 1;
+    private static final int HEADER_SIZE = 4 + 2 + 2 + 4;
+    private static final long NO_TIMESTAMP = Long.MIN_VALUE;
+
+    private BinarySnapshot() {}
+
+    /**
+     * Encodes a collection of records into a buffer ready to be written to disk.
+     */
+    static ByteBuffer encode(CustomerManager.EntityType type, Collection<?> records) {
+        Output out = new Output(Math.max(1024, records.size() * 256));
+        out.putInt(MAGIC);
+        out.putShort(VERSION);
+        out.putShort((short) type.getCode());
+        out.putInt(records.size());
+
+        for (Object record : records) {
+            switch (type) {
+                case CUSTOMER:
+                    writeCustomer(out, (CustomerManager.Customer) record);
+                    break;
+                case APPOINTMENT:
+                    writeAppointment(out, (CustomerManager.Appointment) record);
+                    break;
+                case SERVICE:
+                    writeService(out, (CustomerManager.Service) record);
+                    break;
+                case INVOICE:
+                    writeInvoice(out, (CustomerManager.Invoice) record);
+                    break;
+            }
+        }
+
+        ByteBuffer body = out.buffer.duplicate();
+        body.flip();
+        body.position(HEADER_SIZE);
+        CRC32 crc = new CRC32();
+        crc.update(body);
+        out.putLong(crc.getValue());
+
+        ByteBuffer result = out.buffer;
+        result.flip();
+        return result;
+    }
+
+    /**
+     * Loads a binary snapshot, using the newest generation that passes its checksum.
+     *
+     * @return the records, or null if no complete generation exists
+     */
+    @SuppressWarnings("unchecked")
+    static <T> List<T> read(Path target, CustomerManager.EntityType type) throws IOException {
+        for (Path candidate : SnapshotFiles.generations(target)) {
+            List<T> records = (List<T>) readFile(candidate, type);
+            if (records != null) {
+                if (!candidate.equals(target)) {
+                    System.err.println("Loaded " + candidate + " in place of " + target);
+                }
+                return records;
+            }
+        }
+        return null;
+    }
+
+    private static List<Object> readFile(Path file, CustomerManager.EntityType type) throws IOException {
+        if (!Files.exists(file)) return null;
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_SIZE + 8 || size > Integer.MAX_VALUE) return null;
+
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            if (buffer.getInt() != MAGIC || buffer.getShort() != VERSION
+                    || buffer.getShort() != type.getCode()) {
+                return null;
+            }
+            int count = buffer.getInt();
+
+            // Verify the checksum before trusting any lengths inside the records
+            ByteBuffer body = buffer.duplicate();
+            body.position(HEADER_SIZE).limit((int) size - 8);
+            CRC32 crc = new CRC32();
+            crc.update(body);
+            if (crc.getValue() != buffer.getLong((int) size - 8)) return null;
+
+            Input in = new Input(buffer);
+            List<Object> records = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                switch (type) {
+                    case CUSTOMER:
+                        records.add(readCustomer(in));
+                        break;
+                    case APPOINTMENT:
+                        records.add(readAppointment(in));
+                        break;
+                    case SERVICE:
+                        records.add(readService(in));
+                        break;
+                    case INVOICE:
+                        records.add(readInvoice(in));
+                        break;
+                }
+            }
+            return records;
+        }
+    }
+
+    private static void writeCustomer(Output out, CustomerManager.Customer customer) {
+        out.putString(customer.getId());
+        out.putString(customer.getFirstName());
+        out.putString(customer.getLastName());
+        out.putString(customer.getEmail());
+        out.putString(customer.getPhone());
+        out.putString(customer.getAddress());
+        out.putString(customer.getVehicleMake());
+        out.putString(customer.getVehicleModel());
+        out.putString(customer.getVehicleYear());
+        out.putString(customer.getVehicleColor());
+        out.putString(customer.getNotes());
+        out.putTimestamp(customer.getCreatedAt());
+    }
+
+    private static CustomerManager.Customer readCustomer(Input in) {
+        CustomerManager.Customer customer = new CustomerManager.Customer();
+        customer.setId(in.getString());
+        customer.setFirstName(in.getString());
+        customer.setLastName(in.getString());
+        customer.setEmail(in.getString());
+        customer.setPhone(in.getString());
+        customer.setAddress(in.getString());
+        customer.setVehicleMake(in.getString());
+        customer.setVehicleModel(in.getString());
+        customer.setVehicleYear(in.getString());
+        customer.setVehicleColor(in.getString());
+        customer.setNotes(in.getString());
+        customer.setCreatedAt(in.getTimestamp());
+        return customer;
+    }
+
+    private static void writeAppointment(Output out, CustomerManager.Appointment appointment) {
+        out.putString(appointment.getId());
+        out.putString(appointment.getCustomerId());
+        out.putTimestamp(appointment.getDateTime());
+        out.putString(appointment.getLocation());
+        out.putStringList(appointment.getServiceIds());
+        out.putString(appointment.getStatus());
+        out.putString(appointment.getNotes());
+    }
+
+    private static CustomerManager.Appointment readAppointment(Input in) {
+        CustomerManager.Appointment appointment = new CustomerManager.Appointment();
+        appointment.setId(in.getString());
+        appointment.setCustomerId(in.getString());
+        appointment.setDateTime(in.getTimestamp());
+        appointment.setLocation(in.getString());
+        appointment.setServiceIds(in.getStringList());
+        appointment.setStatus(in.getString());
+        appointment.setNotes(in.getString());
+        return appointment;
+    }
+
+    private static void writeService(Output out, CustomerManager.Service service) {
+        out.putString(service.getId());
+        out.putString(service.getCode());
+        out.putString(service.getName());
+        out.putString(service.getDescription());
+        out.putMoney(service.getPrice());
+    }
+
+    private static CustomerManager.Service readService(Input in) {
+        CustomerManager.Service service = new CustomerManager.Service();
+        service.setId(in.getString());
+        service.setCode(in.getString());
+        service.setName(in.getString());
+        service.setDescription(in.getString());
+        service.setPrice(in.getMoney());
+        return service;
+    }
+
+    private static void writeInvoice(Output out, CustomerManager.Invoice invoice) {
+        out.putString(invoice.getId());
+        out.putString(invoice.getCustomerId());
+        out.putString(invoice.getAppointmentId());
+        out.putStringList(invoice.getServiceIds());
+        out.putMoney(invoice.getTotalAmount());
+        out.putString(invoice.getStatus());
+        out.putTimestamp(invoice.getCreationDate());
+        out.putTimestamp(invoice.getPaymentDate());
+    }
+
+    private static CustomerManager.Invoice readInvoice(Input in) {
+        CustomerManager.Invoice invoice = new CustomerManager.Invoice();
+        invoice.setId(in.getString());
+        invoice.setCustomerId(in.getString());
+        invoice.setAppointmentId(in.getString());
+        invoice.setServiceIds(in.getStringList());
+        invoice.setTotalAmount(in.getMoney());
+        invoice.setStatus(in.getString());
+        invoice.setCreationDate(in.getTimestamp());
+        invoice.setPaymentDate(in.getTimestamp());
+        return invoice;
+    }
+
+    /**
+     * Growable heap buffer for encoding
+     */
+    private static class Output {
+        private ByteBuffer buffer;
+
+        Output(int initialCapacity) {
+            buffer = ByteBuffer.allocate(initialCapacity);
+        }
+
+        void putInt(int value) {
+            ensure(4);
+            buffer.putInt(value);
+        }
+
+        void putShort(short value) {
+            ensure(2);
+            buffer.putShort(value);
+        }
+
+        void putLong(long value) {
+            ensure(8);
+            buffer.putLong(value);
+        }
+
+        void putString(String value) {
+            if (value == null) {
+                putInt(-1);
+                return;
+            }
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            ensure(4 + bytes.length);
+            buffer.putInt(bytes.length);
+            buffer.put(bytes);
+        }
+
+        void putStringList(List<String> values) {
+            putInt(values.size());
+            for (String value : values) {
+                putString(value);
+            }
+        }
+
+        void putTimestamp(LocalDateTime value) {
+            putLong(value == null ? NO_TIMESTAMP : value.toEpochSecond(ZoneOffset.UTC));
+        }
+
+        void putMoney(double amount) {
+            putLong(Math.round(amount * 100));
+        }
+
+        private void ensure(int bytes) {
+            if (buffer.remaining() < bytes) {
+                ByteBuffer bigger = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + bytes));
+                buffer.flip();
+                bigger.put(buffer);
+                buffer = bigger;
+            }
+        }
+    }
+
+    /**
+     * Decoder over the mapped file. The scratch array is reused for every string.
+     */
+    private static class Input {
+        private final ByteBuffer buffer;
+        private byte[] scratch = new byte[256];
+
+        Input(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        String getString() {
+            int length = buffer.getInt();
+            if (length < 0) return null;
+            if (length > scratch.length) {
+                scratch = new byte[Math.max(length, scratch.length * 2)];
+            }
+            buffer.get(scratch, 0, length);
+            return new String(scratch, 0, length, StandardCharsets.UTF_8);
+        }
+
+        List<String> getStringList() {
+            int count = buffer.getInt();
+            List<String> values = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                values.add(getString());
+            }
+            return values;
+        }
+
+        LocalDateTime getTimestamp() {
+            long seconds = buffer.getLong();
+            return seconds == NO_TIMESTAMP ? null : LocalDateTime.ofEpochSecond(seconds, 0, ZoneOffset.UTC);
+        }
+
+        double getMoney() {
+            return buffer.getLong() / 100.0;
+        }
+    }
+}
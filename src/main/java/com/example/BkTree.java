@@ -0,0 +1,140 @@
+package com.example;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * BK-tree over lowercased words for edit-distance (Levenshtein) search.
+ *
+ * Each node holds one distinct word and the ids of the records filed under it; its
+ * children are keyed by their distance from it. Since edit distance is a metric, a search
+ * within distance k of a query that is d away from a node only has to visit the children
+ * keyed d - k through d + k, which prunes most of the tree for small k.
+ *
+ * Words are never taken out of the tree, only their ids; a word nobody uses any more just
+ * matches nothing until the next clear. Not thread-safe; CustomerManager guards it with
+ * its own lock.
+ */
+class BkTree {
+    private static class Node {
+        final String word;
+        final Set<String> ids = new LinkedHashSet<>();
+        final Map<Integer, Node> children = new HashMap<>();
+
+        Node(String word) {
+            this.word = word;
+        }
+    }
+
+    private Node root;
+    private final Map<String, Node> nodeByWord = new HashMap<>();
+    private final Map<String, List<String>> wordsById = new HashMap<>();
+
+    /**
+     * Files the record under the given words, replacing the words it had before.
+     * Null and blank words are skipped.
+     */
+    void put(String id, String... words) {
+        remove(id);
+        List<String> filed = new ArrayList<>(words.length);
+        for (String word : words) {
+            if (word == null) continue;
+            String normalized = word.trim().toLowerCase();
+            if (normalized.isEmpty() || filed.contains(normalized)) continue;
+            node(normalized).ids.add(id);
+            filed.add(normalized);
+        }
+        wordsById.put(id, filed);
+    }
+
+    void remove(String id) {
+        List<String> filed = wordsById.remove(id);
+        if (filed == null) return;
+        for (String word : filed) {
+            nodeByWord.get(word).ids.remove(id);
+        }
+    }
+
+    void clear() {
+        root = null;
+        nodeByWord.clear();
+        wordsById.clear();
+    }
+
+    /**
+     * Finds the records with a word within maxDistance edits of word.
+     *
+     * @return each matching id with the distance of its closest word
+     */
+    Map<String, Integer> search(String word, int maxDistance) {
+        Map<String, Integer> result = new HashMap<>();
+        String query = word.trim().toLowerCase();
+        if (root == null || query.isEmpty()) return result;
+
+        Deque<Node> pending = new ArrayDeque<>();
+        pending.push(root);
+        while (!pending.isEmpty()) {
+            Node node = pending.pop();
+            int distance = distance(query, node.word);
+            if (distance <= maxDistance) {
+                for (String id : node.ids) {
+                    result.merge(id, distance, Math::min);
+                }
+            }
+            for (int key = Math.max(1, distance - maxDistance); key <= distance + maxDistance; key++) {
+                Node child = node.children.get(key);
+                if (child != null) pending.push(child);
+            }
+        }
+        return result;
+    }
+
+    private Node node(String word) {
+        Node existing = nodeByWord.get(word);
+        if (existing != null) return existing;
+
+        Node created = new Node(word);
+        nodeByWord.put(word, created);
+        if (root == null) {
+            root = created;
+            return created;
+        }
+        Node node = root;
+        while (true) {
+            int distance = distance(word, node.word);
+            Node child = node.children.get(distance);
+            if (child == null) {
+                node.children.put(distance, created);
+                return created;
+            }
+            node = child;
+        }
+    }
+
+    // Levenshtein distance with two rolling rows
+    static int distance(String a, String b) {
+        int[] previous = new int[b.length() + 1];
+        int[] current = new int[b.length() + 1];
+        for (int j = 0; j <= b.length(); j++) {
+            previous[j] = j;
+        }
+        for (int i = 1; i <= a.length(); i++) {
+            current[0] = i;
+            char c = a.charAt(i - 1);
+            for (int j = 1; j <= b.length(); j++) {
+                int substitution = previous[j - 1] + (c == b.charAt(j - 1) ? 0 : 1);
+                current[j] = Math.min(substitution, Math.min(previous[j], current[j - 1]) + 1);
+            }
+            int[] swap = previous;
+            previous = current;
+            current = swap;
+        }
+        return previous[b.length()];
+    }
+}
@@ -1,51 +1,212 @@
 package com.example;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
+import java.util.AbstractMap;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.EnumSet;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.BiConsumer;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 /**
  * Backend for my Auto Detailing CRM application, and IB CS2 IA
  * Manages customers, appointments, services, and invoices
+ *
+ * Safe to share between threads. Changes are made one at a time; reads never wait for
+ * them unless they touch the collection being changed at that moment.
  */
 public class CustomerManager {
-    private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss");
     private Map<String, Customer> customers;
     private Map<String, Appointment> appointments;
     private Map<String, Service> services;
     private Map<String, Invoice> invoices;
 
+    // Replaced whole by reindex(), under every write lock
+    private Indexes indexes = new Indexes();
+
     private static final String DATA_DIRECTORY = "data";
     private static final String CUSTOMERS_FILE = DATA_DIRECTORY + "/customers.txt";
     private static final String APPOINTMENTS_FILE = DATA_DIRECTORY + "/appointments.txt";
     private static final String SERVICES_FILE = DATA_DIRECTORY + "/services.txt";
     private static final String INVOICES_FILE = DATA_DIRECTORY + "/invoices.txt";
+    private static final String JOURNAL_FILE = DATA_DIRECTORY + "/journal.log";
+    private static final String BACKUP_DIRECTORY = DATA_DIRECTORY + "/backups";
+
+    // Number of journal records before the journal is folded into a new snapshot
+    private static final int CHECKPOINT_THRESHOLD = 5000;
+    // How long the background writer waits for more changes before writing a burst
+    private static final long DEFAULT_FLUSH_WINDOW_MILLIS = 25;
+    // How many edits a fuzzy name search allows per word by default
+    public static final int DEFAULT_MAX_EDIT_DISTANCE = 2;
+    // Tries the edit methods make before giving up on a record others keep saving
+    private static final int EDIT_ATTEMPTS = 5;
+    // Reading each collection, then replaying the journal and rebuilding the indexes
+    public static final int LOAD_STEPS = EntityType.values().length + 1;
+
+    /**
+     * The four kinds of records the manager persists.
+     * The code is the one character tag used for them in the journal.
+     */
+    public enum EntityType {
+        CUSTOMER('C'),
+        APPOINTMENT('A'),
+        SERVICE('S'),
+        INVOICE('I');
+
+        private final char code;
+
+        EntityType(char code) {
+            this.code = code;
+        }
+
+        public char getCode() {
+            return code;
+        }
+
+        public static EntityType fromCode(char code) {
+            for (EntityType type : values()) {
+                if (type.code == code) return type;
+            }
+            return null;
+        }
+    }
+
+    /**
+     * What deleting a record does to the records that refer to it
+     */
+    public enum DeletePolicy {
+        // Delete them too
+        CASCADE,
+        // Refuse the delete while anything refers to the record
+        RESTRICT,
+        // Keep them, clearing the reference
+        NULLIFY
+    }
 
+    private final DataJournal journal = new DataJournal(JOURNAL_FILE);
+    private final BackupManager backups = new BackupManager(Paths.get(BACKUP_DIRECTORY));
+    // Held while data files are being written, so a backup never sees a half-finished flush
+    private final Object ioLock = new Object();
+    private volatile boolean journalMode = true;
+    // Write snapshots in the binary format instead of text
+    private volatile boolean binarySnapshots;
+    // Set when the last load hit a file it couldn't read. Nothing is saved while it is set,
+    // so the files stay as they were for recovery instead of being replaced by a partial load.
+    private volatile boolean loadFailed;
+
+    // One lock per collection, covering its map and its indexes. Readers take its read
+    // lock alone, so they only wait for writers of that collection; writers also hold
+    // this, which keeps changes that span collections (and the journal) in order.
+    private final EnumMap<EntityType, StampedLock> locks = new EnumMap<>(EntityType.class);
+    // Write stamps held by the thread holding this, by ordinal; 0 when not held
+    private final long[] writeStamps = new long[EntityType.values().length];
+
+    // Keyed by the type being deleted; guarded by this
+    private final EnumMap<EntityType, DeletePolicy> deletePolicies = new EnumMap<>(EntityType.class);
+
+    // Collections changed since their file was last written
+    private final EnumSet<EntityType> dirty = EnumSet.noneOf(EntityType.class);
+    // Replaced, never changed, after each save (under ioLock), so readers always see one save's totals
+    private volatile SaveStats saveStats = new SaveStats();
+    private final LoadStats loadStats = new LoadStats();
+    // Told (steps done, LOAD_STEPS) while the constructor loads; null afterwards
+    private volatile BiConsumer<Integer, Integer> loadProgress;
+    private final AtomicInteger loadStepsDone = new AtomicInteger();
+    // Reused for journal payloads; replay runs on the loading thread only
+    private final RecordTokenizer replayFields = new RecordTokenizer();
+
+    // Changes waiting for the next flush; guarded by this
+    private List<DataJournal.Record> pendingRecords = new ArrayList<>();
+    private boolean checkpointRequested;
+    // Undo actions for the batch being applied, null outside a batch; guarded by this
+    private List<Runnable> undoLog;
+    // Writes changes in the background; null when every mutation saves synchronously
+    private volatile PersistenceWriter writer;
+    // Persistent copies of the collections as they stand, published by commit(); guarded by this
+    private final EnumMap<EntityType, PersistentMap<Object>> versions = new EnumMap<>(EntityType.class);
+    private long version;
+    // The last published versions; read without locking
+    private volatile Snapshot snapshot;
 
     public CustomerManager() {
+        this(null);
+    }
+
+    /**
+     * Loads the data, reporting each step to progress as (steps done, LOAD_STEPS).
+     * Collections load in parallel, so progress may be called from several threads.
+     */
+    public CustomerManager(BiConsumer<Integer, Integer> progress) {
+        loadProgress = progress;
         customers = new HashMap<>();
         appointments = new HashMap<>();
         services = new HashMap<>();
         invoices = new HashMap<>();
 
+        for (EntityType type : EntityType.values()) {
+            locks.put(type, new StampedLock());
+            versions.put(type, PersistentMap.empty());
+        }
+        snapshot = new Snapshot(0, versions);
+
+        // Customers take their history with them; invoices outlive appointments and services
+        deletePolicies.put(EntityType.CUSTOMER, DeletePolicy.CASCADE);
+        deletePolicies.put(EntityType.APPOINTMENT, DeletePolicy.NULLIFY);
+        deletePolicies.put(EntityType.SERVICE, DeletePolicy.NULLIFY);
+        deletePolicies.put(EntityType.INVOICE, DeletePolicy.RESTRICT);
+
         // Create data directory if it doesn't exist
         File directory = new File(DATA_DIRECTORY);
         if (!directory.exists()) {
             directory.mkdir();
         }
 
+        writer = new PersistenceWriter(this::flushPending, DEFAULT_FLUSH_WINDOW_MILLIS);
+
         // Load existing data or initialize with defaults
         if (!loadData()) {
-            // Initialize with default services if loading failed
-            initializeDefaultServices();
+            if (loadFailed) {
+                System.err.println("Data could not be loaded; changes won't be saved until it is restored");
+            } else {
+                // Nothing saved yet: start with the default services
+                initializeDefaultServices();
+            }
+        } else {
+            // Only reported: fixing them can delete records, so that waits for someone to ask
+            int orphans = countOrphans();
+            if (orphans > 0) {
+                System.out.println(orphans + " records refer to deleted records; cleanUpOrphans() can fix them");
+            }
         }
+        loadProgress = null;
     }
 
     private void initializeDefaultServices() {
@@ -57,512 +218,2439 @@ public class CustomerManager {
     }
 
     // Customer methods
-    public String addCustomer(Customer customer) {
+    public synchronized String addCustomer(Customer customer) {
         if (customer.getId() == null || customer.getId().isEmpty()) {
             customer.setId(UUID.randomUUID().toString());
         }
-        customers.put(customer.getId(), customer);
-        saveData(); // Save after modification
+        store(EntityType.CUSTOMER, customer.getId(), customer);
+        commit(); // Save after modification
         return customer.getId();
     }
 
-    public boolean updateCustomer(Customer customer) {
+    public synchronized boolean updateCustomer(Customer customer) {
         if (customers.containsKey(customer.getId())) {
-            customers.put(customer.getId(), customer);
-            saveData(); // Save after modification
+            store(EntityType.CUSTOMER, customer.getId(), customer);
+            commit(); // Save after modification
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Deletes a customer, applying the CUSTOMER delete policy to their appointments
+     * and invoices (by default they are deleted too).
+     *
+     * @return false if there is no such customer or the policy is RESTRICT and they
+     *         still have appointments or invoices
+     */
+    public synchronized boolean deleteCustomer(String customerId) {
+        if (customers.containsKey(customerId) && delete(EntityType.CUSTOMER, customerId)) {
+            commit();
             return true;
         }
         return false;
     }
 
-    public boolean deleteCustomer(String customerId) {
-        if (customers.containsKey(customerId)) {
-            customers.remove(customerId);
+    public Customer getCustomer(String id) {
+        return readShared(EntityType.CUSTOMER, () -> customers.get(id));
+    }
+
+    public List<Customer> getAllCustomers() {
+        return readShared(EntityType.CUSTOMER, () -> new ArrayList<>(customers.values()));
+    }
 
-            // Remove related appointments
-            List<String> appointmentsToRemove = appointments.values().stream()
-                    .filter(a -> a.getCustomerId().equals(customerId))
-                    .map(Appointment::getId)
-                    .collect(Collectors.toList());
+    /**
+     * Finds customers whose name, email or phone contains the query, ignoring case.
+     * Best matches come first: a whole field, then a field prefix, then the start of a word.
+     */
+    public List<Customer> searchCustomers(String query) {
+        return searchCustomers(query, Integer.MAX_VALUE);
+    }
 
-            appointmentsToRemove.forEach(appointments::remove);
+    public List<Customer> searchCustomers(String query, int limit) {
+        return readShared(EntityType.CUSTOMER, () -> {
+            List<Customer> result = new ArrayList<>();
+            for (String id : indexes.customerSearch.search(query, limit)) {
+                result.add(customers.get(id));
+            }
+            return result;
+        });
+    }
 
-            saveData();
+    /**
+     * Finds customers whose names are close to the query, for when a misspelled search
+     * ("Jonson") finds nothing. Uses DEFAULT_MAX_EDIT_DISTANCE.
+     */
+    public List<Customer> fuzzySearchCustomers(String query) {
+        return fuzzySearchCustomers(query, DEFAULT_MAX_EDIT_DISTANCE, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Finds customers where every word of the query is within maxDistance edits of their
+     * first or last name, closest (fewest total edits) first. Short words allow fewer
+     * edits, at most half their length, so "al" doesn't match every short name.
+     */
+    public List<Customer> fuzzySearchCustomers(String query, int maxDistance, int limit) {
+        return readShared(EntityType.CUSTOMER, () -> {
+            Map<String, Integer> totals = null;
+            for (String word : query.trim().split("\\s+")) {
+                if (word.isEmpty()) continue;
+                Map<String, Integer> matches = indexes.customerNames.search(word, Math.min(maxDistance, word.length() / 2));
+                if (totals == null) {
+                    totals = matches;
+                } else {
+                    totals.keySet().retainAll(matches.keySet());
+                    for (Map.Entry<String, Integer> entry : totals.entrySet()) {
+                        entry.setValue(entry.getValue() + matches.get(entry.getKey()));
+                    }
+                }
+            }
+            List<Customer> result = new ArrayList<>();
+            if (totals == null) return result;
+
+            List<Map.Entry<String, Integer>> ranked = new ArrayList<>(totals.entrySet());
+            ranked.sort((a, b) -> a.getValue().equals(b.getValue())
+                    ? customers.get(a.getKey()).getFullName().compareToIgnoreCase(customers.get(b.getKey()).getFullName())
+                    : Integer.compare(a.getValue(), b.getValue()));
+            for (int i = 0; i < ranked.size() && result.size() < limit; i++) {
+                result.add(customers.get(ranked.get(i).getKey()));
+            }
+            return result;
+        });
+    }
+
+    /**
+     * Completes what a user has typed so far into a customer picker: customers whose full
+     * name, last name, email or phone starts with prefix, in alphabetical order of the
+     * match. Phone numbers match on their digits alone, so "5551" finds "555-1234".
+     */
+    public List<Customer> completeCustomers(String prefix, int limit) {
+        return readShared(EntityType.CUSTOMER, () -> {
+            List<String> ids = indexes.customerCompletions.complete(prefix, limit);
+            String digits = digitsOnly(prefix);
+            if (ids.size() < limit && !digits.isEmpty() && !digits.equals(prefix.trim())) {
+                for (String id : indexes.customerCompletions.complete(digits, limit)) {
+                    if (ids.size() >= limit) break;
+                    if (!ids.contains(id)) ids.add(id);
+                }
+            }
+            List<Customer> result = new ArrayList<>(ids.size());
+            for (String id : ids) {
+                result.add(customers.get(id));
+            }
+            return result;
+        });
+    }
+
+    /**
+     * Finds customers by phone number, ignoring punctuation and spacing.
+     */
+    public List<Customer> findByPhone(String phone) {
+        return readShared(EntityType.CUSTOMER, () -> {
+            String key = digitsOnly(phone);
+            return key.isEmpty() ? new ArrayList<>() : lookup(indexes.customersByPhone, customers, key);
+        });
+    }
+
+    /**
+     * Finds customers by email address, ignoring case.
+     */
+    public List<Customer> findByEmail(String email) {
+        return readShared(EntityType.CUSTOMER, () -> {
+            String key = normalizeEmail(email);
+            return key.isEmpty() ? new ArrayList<>() : lookup(indexes.customersByEmail, customers, key);
+        });
+    }
+
+    /**
+     * Finds the other customers sharing this customer's phone number or email, which
+     * likely means the same person was entered twice. Call before addCustomer to warn.
+     */
+    public List<Customer> findDuplicates(Customer customer) {
+        List<Customer> result = new ArrayList<>();
+        for (Customer match : findByPhone(customer.getPhone())) {
+            if (!match.getId().equals(customer.getId())) result.add(match);
+        }
+        for (Customer match : findByEmail(customer.getEmail())) {
+            if (!match.getId().equals(customer.getId()) && !result.contains(match)) result.add(match);
+        }
+        return result;
+    }
+
+    // Appointment methods
+    public synchronized String addAppointment(Appointment appointment) {
+        if (appointment.getId() == null || appointment.getId().isEmpty()) {
+            appointment.setId(UUID.randomUUID().toString());
+        }
+        store(EntityType.APPOINTMENT, appointment.getId(), appointment);
+        commit();
+        return appointment.getId();
+    }
+
+    public synchronized boolean updateAppointment(Appointment appointment) {
+        if (appointments.containsKey(appointment.getId())) {
+            store(EntityType.APPOINTMENT, appointment.getId(), appointment);
+            commit();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Deletes an appointment, applying the APPOINTMENT delete policy to invoices raised
+     * for it (by default they are kept without the appointment).
+     */
+    public synchronized boolean deleteAppointment(String appointmentId) {
+        if (appointments.containsKey(appointmentId) && delete(EntityType.APPOINTMENT, appointmentId)) {
+            commit();
+            return true;
+        }
+        return false;
+    }
+
+    public Appointment getAppointment(String id) {
+        return readShared(EntityType.APPOINTMENT, () -> appointments.get(id));
+    }
+
+    public List<Appointment> getAllAppointments() {
+        return readShared(EntityType.APPOINTMENT, () -> new ArrayList<>(appointments.values()));
+    }
+
+    public List<Appointment> getAppointmentsByDate(LocalDate date) {
+        return getAppointmentsOn(date);
+    }
+
+    // The date queries below return appointments in time order, as a new list the caller
+    // owns: later changes don't show up in it. Finding the range is O(log n) however much
+    // history there is; only the matches are copied.
+
+    public List<Appointment> getAppointmentsOn(LocalDate date) {
+        return readShared(EntityType.APPOINTMENT, () -> new ArrayList<>(
+                indexes.appointmentsByTime.between(date.atStartOfDay(), date.plusDays(1).atStartOfDay())));
+    }
+
+    /**
+     * @return a copy of the appointments from the start of the first day to the end of the last day
+     */
+    public List<Appointment> getAppointmentsBetween(LocalDate firstDay, LocalDate lastDay) {
+        return readShared(EntityType.APPOINTMENT, () -> new ArrayList<>(
+                indexes.appointmentsByTime.between(firstDay.atStartOfDay(), lastDay.plusDays(1).atStartOfDay())));
+    }
+
+    /**
+     * @return a copy of the appointments at or after from and before to
+     */
+    public List<Appointment> getAppointmentsBetween(LocalDateTime from, LocalDateTime to) {
+        return readShared(EntityType.APPOINTMENT, () -> new ArrayList<>(indexes.appointmentsByTime.between(from, to)));
+    }
+
+    /**
+     * @return the next count appointments at or after from
+     */
+    public List<Appointment> getNextAppointments(LocalDateTime from, int count) {
+        return readShared(EntityType.APPOINTMENT, () -> indexes.appointmentsByTime.next(from, count));
+    }
+
+    public List<Appointment> getAppointmentsByCustomer(String customerId) {
+        return readShared(EntityType.APPOINTMENT, () -> lookup(indexes.appointmentsByCustomer, appointments, customerId));
+    }
+
+    // Service methods
+    /**
+     * @return the new service's id, or null if another service already has its code
+     */
+    public synchronized String addService(Service service) {
+        if (service.getId() == null || service.getId().isEmpty()) {
+            service.setId(UUID.randomUUID().toString());
+        }
+        if (isCodeTaken(service)) {
+            System.err.println("Service code already in use: " + service.getCode());
+            return null;
+        }
+        store(EntityType.SERVICE, service.getId(), service);
+        commit();
+        return service.getId();
+    }
+
+    /**
+     * @return false if the service doesn't exist or another service already has its code
+     */
+    public synchronized boolean updateService(Service service) {
+        if (isCodeTaken(service)) {
+            System.err.println("Service code already in use: " + service.getCode());
+            return false;
+        }
+        if (services.containsKey(service.getId())) {
+            store(EntityType.SERVICE, service.getId(), service);
+            commit();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Deletes a service, applying the SERVICE delete policy to the appointments and
+     * invoices listing it (by default it is just taken off their lists).
+     */
+    public synchronized boolean deleteService(String serviceId) {
+        if (services.containsKey(serviceId) && delete(EntityType.SERVICE, serviceId)) {
+            commit();
+            return true;
+        }
+        return false;
+    }
+
+    public Service getService(String id) {
+        return readShared(EntityType.SERVICE, () -> services.get(id));
+    }
+
+    /**
+     * Finds a service by its business code (such as "FULL_DETAIL"), ignoring case and
+     * surrounding spaces.
+     */
+    public Service getServiceByCode(String code) {
+        return readShared(EntityType.SERVICE, () -> {
+            String key = normalizeCode(code);
+            if (key.isEmpty()) return null;
+            Iterator<String> ids = indexes.servicesByCode.get(key).iterator();
+            return ids.hasNext() ? services.get(ids.next()) : null;
+        });
+    }
+
+    // True if a different service is filed under this service's code
+    private boolean isCodeTaken(Service service) {
+        String key = normalizeCode(service.getCode());
+        if (key.isEmpty()) return false;
+        for (String id : indexes.servicesByCode.get(key)) {
+            if (!id.equals(service.getId())) return true;
+        }
+        return false;
+    }
+
+    private static String normalizeCode(String code) {
+        return code == null ? "" : code.trim().toUpperCase();
+    }
+
+    public List<Service> getAllServices() {
+        return readShared(EntityType.SERVICE, () -> new ArrayList<>(services.values()));
+    }
+
+    // Invoice methods
+    public synchronized String createInvoice(String customerId, List<String> serviceIds, String appointmentId) {
+        Invoice invoice = new Invoice();
+        invoice.setId(UUID.randomUUID().toString());
+        invoice.setCustomerId(customerId);
+        invoice.setAppointmentId(appointmentId);
+        invoice.setCreationDate(LocalDateTime.now());
+        invoice.setStatus("PENDING");
+
+        double total = 0;
+        for (String serviceId : serviceIds) {
+            Service service = services.get(serviceId);
+            if (service != null) {
+                invoice.getServiceIds().add(serviceId);
+                total += service.getPrice();
+            }
+        }
+
+        invoice.setTotalAmount(total);
+        store(EntityType.INVOICE, invoice.getId(), invoice);
+
+        commit();
+        return invoice.getId();
+    }
+
+    public synchronized boolean updateInvoiceStatus(String invoiceId, String status) {
+        Invoice invoice = invoices.get(invoiceId);
+        if (invoice != null) {
+            // Changes a copy, so whoever holds the invoice never sees it change under them
+            Invoice changed = invoice.copy();
+            changed.setStatus(status);
+            if (status.equals("PAID")) {
+                changed.setPaymentDate(LocalDateTime.now());
+            }
+            store(EntityType.INVOICE, invoiceId, changed);
+            commit();
             return true;
         }
-        return false;
+        return false;
+    }
+
+    public Invoice getInvoice(String id) {
+        return readShared(EntityType.INVOICE, () -> invoices.get(id));
+    }
+
+    public List<Invoice> getAllInvoices() {
+        return readShared(EntityType.INVOICE, () -> new ArrayList<>(invoices.values()));
+    }
+
+    public List<Invoice> getInvoicesByCustomer(String customerId) {
+        return readShared(EntityType.INVOICE, () -> lookup(indexes.invoicesByCustomer, invoices, customerId));
+    }
+
+    /**
+     * Runs a paged query: filters the records, orders them and returns one page.
+     * Only the records that can still make the page are kept while scanning (a bounded
+     * heap of offset + limit entries), so memory depends on the page, not the collection.
+     * Paging with Query.after(cursor) keeps even that flat however deep the reader goes.
+     */
+    public <T> Page<T> query(Query<T> query) {
+        return readShared(query.type, () -> page(query));
+    }
+
+    private <T> Page<T> page(Query<T> query) {
+        @SuppressWarnings("unchecked")
+        Map<String, T> records = (Map<String, T>) getCollection(query.type);
+        // The query's order, with ties broken by id so every record has one place
+        Comparator<Map.Entry<String, T>> order = (a, b) -> {
+            int result = query.order == null ? 0 : query.order.compare(a.getValue(), b.getValue());
+            return result != 0 ? result : a.getKey().compareTo(b.getKey());
+        };
+        Map.Entry<String, T> after = query.after == null ? null
+                : new AbstractMap.SimpleImmutableEntry<>(query.after.id, query.after.record);
+        int wanted = (int) Math.min(Integer.MAX_VALUE, (long) query.offset + query.limit);
+
+        // Worst of the best entries seen so far on top
+        PriorityQueue<Map.Entry<String, T>> best = new PriorityQueue<>(Math.min(wanted, 1024) + 1, order.reversed());
+        int total = 0;
+        int remaining = 0;
+        for (Map.Entry<String, T> entry : records.entrySet()) {
+            if (!query.filter.test(entry.getValue())) continue;
+            total++;
+            if (after != null && order.compare(entry, after) <= 0) continue;
+            remaining++;
+            if (best.size() < wanted) {
+                best.add(entry);
+            } else if (wanted > 0 && order.compare(entry, best.peek()) < 0) {
+                best.poll();
+                best.add(entry);
+            }
+        }
+
+        List<Map.Entry<String, T>> sorted = new ArrayList<>(best);
+        sorted.sort(order);
+        List<T> items = new ArrayList<>();
+        for (int i = query.offset; i < sorted.size(); i++) {
+            items.add(sorted.get(i).getValue());
+        }
+        Cursor<T> next = null;
+        if (!items.isEmpty() && query.offset + items.size() < remaining) {
+            Map.Entry<String, T> last = sorted.get(sorted.size() - 1);
+            next = new Cursor<>(last.getKey(), last.getValue());
+        }
+        return new Page<>(items, total, query.offset, next);
+    }
+
+    // Resolves the ids an index has filed under key
+    private static <T> List<T> lookup(SecondaryIndex index, Map<String, T> records, String key) {
+        List<T> result = new ArrayList<>();
+        for (String id : index.get(key)) {
+            T record = records.get(id);
+            if (record != null) {
+                result.add(record);
+            }
+        }
+        return result;
+    }
+
+    public List<Invoice> getPendingInvoices() {
+        return readShared(EntityType.INVOICE, () -> new ArrayList<>(indexes.invoicesByStatus.get("PENDING")));
+    }
+
+    /**
+     * @return the invoices with the given status
+     */
+    public Collection<Invoice> getInvoicesByStatus(String status) {
+        return readShared(EntityType.INVOICE, () -> new ArrayList<>(indexes.invoicesByStatus.get(status)));
+    }
+
+    public int getInvoiceCount(String status) {
+        return readShared(EntityType.INVOICE, () -> indexes.invoicesByStatus.count(status));
+    }
+
+    /**
+     * @return the sum of the amounts of the invoices with the given status
+     */
+    public double getInvoiceTotal(String status) {
+        return readShared(EntityType.INVOICE, () -> indexes.invoicesByStatus.totalCents(status) / 100.0);
+    }
+
+    // Compare-and-set updates
+    //
+    // These save a record only if it is still at the version the caller's copy has, so two
+    // people editing the same record can't silently overwrite each other: the second save
+    // throws StaleVersionException instead. Edit a copy() of the record (or of the one in a
+    // snapshot), never the stored record itself, or the check has nothing to compare.
+    // The manager keeps its own copy of what was saved, so the caller's object stays theirs.
+
+    /**
+     * @return false if there is no such customer
+     * @throws StaleVersionException if the customer was saved since the copy was taken
+     */
+    public synchronized boolean compareAndSetCustomer(Customer customer) {
+        if (!checkVersion(EntityType.CUSTOMER, customer.getId(), customer.getVersion())) return false;
+        storeCopy(EntityType.CUSTOMER, customer.getId(), customer);
+        commit();
+        return true;
+    }
+
+    /**
+     * @return false if there is no such appointment
+     * @throws StaleVersionException if the appointment was saved since the copy was taken
+     */
+    public synchronized boolean compareAndSetAppointment(Appointment appointment) {
+        if (!checkVersion(EntityType.APPOINTMENT, appointment.getId(), appointment.getVersion())) return false;
+        storeCopy(EntityType.APPOINTMENT, appointment.getId(), appointment);
+        commit();
+        return true;
+    }
+
+    /**
+     * @return false if there is no such service or another service already has its code
+     * @throws StaleVersionException if the service was saved since the copy was taken
+     */
+    public synchronized boolean compareAndSetService(Service service) {
+        if (!checkVersion(EntityType.SERVICE, service.getId(), service.getVersion())) return false;
+        if (isCodeTaken(service)) {
+            System.err.println("Service code already in use: " + service.getCode());
+            return false;
+        }
+        storeCopy(EntityType.SERVICE, service.getId(), service);
+        commit();
+        return true;
+    }
+
+    /**
+     * @return false if there is no such invoice
+     * @throws StaleVersionException if the invoice was saved since the copy was taken
+     */
+    public synchronized boolean compareAndSetInvoice(Invoice invoice) {
+        if (!checkVersion(EntityType.INVOICE, invoice.getId(), invoice.getVersion())) return false;
+        storeCopy(EntityType.INVOICE, invoice.getId(), invoice);
+        commit();
+        return true;
+    }
+
+    /**
+     * Applies edit to a fresh copy of the customer and saves it, starting over from the
+     * newly saved customer if someone else saved it in between. edit may run more than
+     * once, so it should only set fields.
+     *
+     * @return the edited copy (not the stored record), or null if there is no such customer
+     * @throws StaleVersionException if every attempt lost to another save
+     */
+    public Customer editCustomer(String id, Consumer<Customer> edit) {
+        return edit(EntityType.CUSTOMER, id, edit, this::compareAndSetCustomer);
+    }
+
+    public Appointment editAppointment(String id, Consumer<Appointment> edit) {
+        return edit(EntityType.APPOINTMENT, id, edit, this::compareAndSetAppointment);
+    }
+
+    // Also null if the edit gives the service a code another service has
+    public Service editService(String id, Consumer<Service> edit) {
+        return edit(EntityType.SERVICE, id, edit, this::compareAndSetService);
+    }
+
+    public Invoice editInvoice(String id, Consumer<Invoice> edit) {
+        return edit(EntityType.INVOICE, id, edit, this::compareAndSetInvoice);
+    }
+
+    /**
+     * Calls attempt until it gets through without a StaleVersionException, at most
+     * maxAttempts times, pausing a few random milliseconds (more each time) between tries
+     * so that clashing editors drift apart. attempt must read the record afresh each time.
+     *
+     * @throws StaleVersionException from the last attempt if none got through
+     */
+    public static <T> T retryOnConflict(int maxAttempts, Supplier<T> attempt) {
+        for (int attempts = 1; ; attempts++) {
+            try {
+                return attempt.get();
+            } catch (StaleVersionException e) {
+                if (attempts >= maxAttempts) throw e;
+                try {
+                    Thread.sleep(ThreadLocalRandom.current().nextLong(1L << Math.min(attempts, 6)) + 1);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    throw e;
+                }
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T edit(EntityType type, String id, Consumer<T> edit, Predicate<T> save) {
+        return retryOnConflict(EDIT_ATTEMPTS, () -> {
+            // Copied under the read lock, so it can't catch a record halfway through a change
+            T copy = (T) readShared(type, () -> {
+                Object current = getCollection(type).get(id);
+                return current == null ? null : copyOf(type, current);
+            });
+            if (copy == null) return null;
+            edit.accept(copy);
+            return save.test(copy) ? copy : null;
+        });
+    }
+
+    // Stores a copy, so the caller's object never becomes the live record (where a later
+    // setter call would change it without a version bump or a journal record), and gives
+    // the caller's object the version it was saved as
+    private void storeCopy(EntityType type, String id, Versioned entity) {
+        Versioned stored = (Versioned) copyOf(type, entity);
+        store(type, id, stored);
+        entity.setVersion(stored.getVersion());
+    }
+
+    // False if the record is gone; throws if it has been saved since expectedVersion
+    private boolean checkVersion(EntityType type, String id, long expectedVersion) {
+        Versioned current = (Versioned) getCollection(type).get(id);
+        if (current == null) return false;
+        if (current.getVersion() != expectedVersion) {
+            throw new StaleVersionException(type, id, expectedVersion, current.getVersion());
+        }
+        return true;
+    }
+
+    /**
+     * Returns every collection as of the last commit. The snapshot never changes, so a
+     * report or export can read it for as long as it likes and see one consistent state,
+     * while edits carry on. Taking one is a single volatile read: it neither copies the
+     * data nor waits for writers.
+     */
+    public Snapshot snapshot() {
+        return snapshot;
+    }
+
+    // Batch methods
+    /**
+     * Starts a unit of work for bulk changes. Nothing happens until Batch.commit(),
+     * which applies every change at once and saves them together.
+     */
+    public Batch newBatch() {
+        return new Batch();
+    }
+
+    // Applies the steps under the lock, rolling all of them back if one fails,
+    // then persists them with a single commit
+    private BatchResult applyBatch(List<BatchStep> steps) {
+        long start = System.nanoTime();
+        PersistenceWriter current;
+        boolean durable = false;
+        synchronized (this) {
+            if (undoLog != null) {
+                throw new IllegalStateException("A batch is already being applied");
+            }
+            int recordsBefore = pendingRecords.size();
+            EnumSet<EntityType> dirtyBefore = EnumSet.copyOf(dirty);
+            EnumMap<EntityType, PersistentMap<Object>> versionsBefore = new EnumMap<>(versions);
+            undoLog = new ArrayList<>();
+            // Readers see the whole batch or none of it, including a rolled back one
+            EnumSet<EntityType> taken = lockAllWrites();
+            try {
+                String error = null;
+                for (BatchStep step : steps) {
+                    try {
+                        if (!step.action.getAsBoolean()) {
+                            error = step.description + " failed";
+                        }
+                    } catch (RuntimeException e) {
+                        error = step.description + " failed: " + e.getMessage();
+                        e.printStackTrace();
+                    }
+                    if (error != null) break;
+                }
+
+                List<Runnable> undo = undoLog;
+                undoLog = null;
+                if (error != null) {
+                    for (int i = undo.size() - 1; i >= 0; i--) {
+                        undo.get(i).run();
+                    }
+                    pendingRecords.subList(recordsBefore, pendingRecords.size()).clear();
+                    dirty.clear();
+                    dirty.addAll(dirtyBefore);
+                    versions.putAll(versionsBefore);
+                    System.err.println("Batch rolled back: " + error);
+                    return new BatchResult(0, System.nanoTime() - start, 0, false, error);
+                }
+            } finally {
+                unlockWrites(taken);
+            }
+
+            publish();
+            current = writer;
+            if (current != null) {
+                current.submit();
+            } else {
+                durable = flushPending();
+            }
+        }
+
+        long applied = System.nanoTime();
+        if (current != null) {
+            durable = current.flush();
+        }
+        return new BatchResult(steps.size(), applied - start, System.nanoTime() - applied, durable, null);
+    }
+
+
+    /**
+     * Writes a snapshot of every collection that changed since it was last saved,
+     * then empties the journal, since everything it recorded is now part of the snapshot.
+     * Files whose collection is unchanged are left alone and counted in getSaveStats().
+     * Blocks until the snapshot is on disk.
+     */
+    public boolean saveData() {
+        PersistenceWriter current;
+        synchronized (this) {
+            checkpointRequested = true;
+            current = writer;
+            if (current == null) {
+                return flushPending();
+            }
+        }
+        current.submit();
+        return current.flush();
+    }
+
+    public SaveStats getSaveStats() {
+        return saveStats;
+    }
+
+    /**
+     * Writes any changes still waiting for the flush window now,
+     * and returns once they are on disk.
+     */
+    public boolean flush() {
+        PersistenceWriter current = writer;
+        return current == null || current.flush();
+    }
+
+    /**
+     * Waits for the background writer to put every change made so far on disk,
+     * without cutting the flush window short.
+     */
+    public boolean awaitDurable() {
+        return awaitDurable(Long.MAX_VALUE);
+    }
+
+    public boolean awaitDurable(long timeoutMillis) {
+        PersistenceWriter current = writer;
+        return current == null || current.awaitDurable(current.lastSubmitted(), timeoutMillis);
+    }
+
+    /**
+     * Turns background saving on or off. When it is on, mutations return as soon as
+     * the in-memory change is made and a writer thread saves bursts of changes together.
+     */
+    public void setAsyncPersistence(boolean enabled) {
+        PersistenceWriter old;
+        synchronized (this) {
+            if (enabled) {
+                if (writer == null) {
+                    writer = new PersistenceWriter(this::flushPending, DEFAULT_FLUSH_WINDOW_MILLIS);
+                }
+                return;
+            }
+            old = writer;
+        }
+        if (old != null) {
+            old.close();
+            synchronized (this) {
+                writer = null;
+                flushPending(); // anything submitted while the writer was stopping
+            }
+        }
+    }
+
+    public boolean isAsyncPersistence() {
+        return writer != null;
+    }
+
+    /**
+     * @return false if the background writer's last attempt to save failed, e.g. on a full
+     *         disk; it keeps retrying, further apart each time, until one succeeds
+     */
+    public boolean isLastSaveOk() {
+        PersistenceWriter current = writer;
+        return current == null || current.isLastFlushOk();
+    }
+
+    /**
+     * Sets how long the background writer waits to gather a burst of changes into one write.
+     */
+    public void setFlushWindowMillis(long millis) {
+        PersistenceWriter current = writer;
+        if (current != null) {
+            current.setWindowMillis(millis);
+        }
+    }
+
+    private static String getDataFile(EntityType type) {
+        switch (type) {
+            case CUSTOMER: return CUSTOMERS_FILE;
+            case APPOINTMENT: return APPOINTMENTS_FILE;
+            case SERVICE: return SERVICES_FILE;
+            default: return INVOICES_FILE;
+        }
+    }
+
+    /**
+     * Loads the four snapshot files in parallel, then replays the journal on top.
+     * Large text files are also split into chunks that are parsed in parallel.
+     * Per-file timings are available from getLoadStats().
+     */
+    public boolean loadData() {
+        long start = System.nanoTime();
+        loadFailed = false;
+        try {
+            CompletableFuture<List<Customer>> customersLoading = loadAsync(EntityType.CUSTOMER, this::parseCustomer);
+            CompletableFuture<List<Appointment>> appointmentsLoading = loadAsync(EntityType.APPOINTMENT, this::parseAppointment);
+            CompletableFuture<List<Service>> servicesLoading = loadAsync(EntityType.SERVICE, this::parseService);
+            CompletableFuture<List<Invoice>> invoicesLoading = loadAsync(EntityType.INVOICE, this::parseInvoice);
+
+            List<Customer> loadedCustomers = join(customersLoading);
+            List<Appointment> loadedAppointments = join(appointmentsLoading);
+            List<Service> loadedServices = join(servicesLoading);
+            List<Invoice> loadedInvoices = join(invoicesLoading);
+
+            boolean servicesLoaded;
+            synchronized (this) {
+                EnumSet<EntityType> taken = lockAllWrites();
+                try {
+                    replaceContents(customers, loadedCustomers, Customer::getId);
+                    replaceContents(appointments, loadedAppointments, Appointment::getId);
+                    servicesLoaded = replaceContents(services, loadedServices, Service::getId);
+                    replaceContents(invoices, loadedInvoices, Invoice::getId);
+
+                    // Apply changes made since the last snapshot
+                    int replayed = journal.replay(this::applyJournalRecord);
+                    if (replayed > 0) {
+                        System.out.println("Replayed " + replayed + " journal records");
+                    }
+                    indexes = buildIndexes();
+                } finally {
+                    unlockWrites(taken);
+                }
+                rebuildVersions();
+                publish();
+            }
+
+            reportLoadStep();
+            loadStats.finish(System.nanoTime() - start);
+            System.out.println("Loaded data: " + loadStats);
+
+            // Return true if services were loaded from the snapshot or the journal
+            return servicesLoaded || !services.isEmpty();
+        } catch (IOException e) {
+            System.err.println("Error loading data: " + e.getMessage());
+            e.printStackTrace();
+            loadFailed = true;
+            return false;
+        }
+    }
+
+    /**
+     * @return whether the last load failed on a file it couldn't read; while it did,
+     *         nothing is saved (restoreBackup clears it if the backup loads)
+     */
+    public boolean isLoadFailed() {
+        return loadFailed;
+    }
+
+    private void reportLoadStep() {
+        BiConsumer<Integer, Integer> progress = loadProgress;
+        if (progress != null) {
+            progress.accept(loadStepsDone.incrementAndGet(), LOAD_STEPS);
+        }
+    }
+
+    public LoadStats getLoadStats() {
+        return loadStats;
+    }
+
+    private <T> CompletableFuture<List<T>> loadAsync(EntityType type, ParallelLoader.LineParser<T> parser) {
+        return CompletableFuture.supplyAsync(() -> {
+            long start = System.nanoTime();
+            try {
+                List<T> records = readCollection(type, parser);
+                loadStats.record(type, records == null ? 0 : records.size(), System.nanoTime() - start);
+                reportLoadStep();
+                return records;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, ForkJoinPool.commonPool());
+    }
+
+    private static <T> List<T> join(CompletableFuture<List<T>> loading) throws IOException {
+        try {
+            return loading.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) e.getCause()).getCause();
+            }
+            throw e;
+        }
+    }
+
+    // Returns false (and leaves the map alone) when there was no file to load
+    private static <T> boolean replaceContents(Map<String, T> map, List<T> loaded, Function<T, String> idOf) {
+        if (loaded == null) return false;
+        map.clear();
+        for (T record : loaded) {
+            map.put(idOf.apply(record), record);
+        }
+        return true;
+    }
+
+    /**
+     * Reads one collection from its binary snapshot if there is one, otherwise from the text file.
+     * Runs on a pool thread, so it must not touch the maps.
+     *
+     * @return the records, or null if neither file exists
+     * @throws IOException also if the binary snapshot exists but no generation of it is intact;
+     *         the text file was deleted when it was written, so there is nothing to fall back on
+     */
+    private <T> List<T> readCollection(EntityType type, ParallelLoader.LineParser<T> parser) throws IOException {
+        Path binaryFile = getBinaryFile(getDataFile(type));
+        if (SnapshotFiles.exists(binaryFile)) {
+            List<T> loaded = BinarySnapshot.read(binaryFile, type);
+            if (loaded == null) {
+                throw new IOException("No generation of " + binaryFile + " passes its checksum");
+            }
+            binarySnapshots = true;
+            return loaded;
+        }
+
+        String contents = SnapshotFiles.read(Paths.get(getDataFile(type)));
+        if (contents == null) return null;
+
+        ParallelLoader.Result<T> result = ParallelLoader.parse(contents, parser);
+        reportSkipped(type.name().toLowerCase(), result.skipped);
+        return result.records;
+    }
+
+    /**
+     * Turns journal mode on or off. With the journal on, each mutation appends one
+     * record to the journal instead of rewriting every data file. Turning it off
+     * folds the journal into a fresh snapshot.
+     */
+    public void setJournalMode(boolean enabled) {
+        boolean foldJournal;
+        synchronized (this) {
+            foldJournal = journalMode && !enabled;
+            journalMode = enabled;
+        }
+        if (foldJournal) {
+            saveData();
+        }
+    }
+
+    public boolean isJournalMode() {
+        return journalMode;
+    }
+
+    /**
+     * Switches snapshots between the text files and the compact binary format,
+     * rewriting every collection in the new format. Once binary files exist they are
+     * picked up automatically on the next start.
+     */
+    public boolean setBinarySnapshots(boolean enabled) {
+        synchronized (this) {
+            if (binarySnapshots == enabled) return true;
+            binarySnapshots = enabled;
+            dirty.addAll(EnumSet.allOf(EntityType.class));
+        }
+        return saveData();
+    }
+
+    public boolean isBinarySnapshots() {
+        return binarySnapshots;
+    }
+
+    /**
+     * Converts the existing .txt data files to binary snapshots.
+     */
+    public boolean convertToBinary() {
+        return setBinarySnapshots(true);
+    }
+
+    /**
+     * Writes anything still pending, stops the background writer and releases
+     * the journal file handle. Call when the application exits.
+     */
+    public void close() {
+        setAsyncPersistence(false);
+        synchronized (this) {
+            try {
+                journal.close();
+            } catch (IOException e) {
+                System.err.println("Error closing journal: " + e.getMessage());
+            }
+        }
+    }
+
+    public synchronized DeletePolicy getDeletePolicy(EntityType type) {
+        return deletePolicies.get(type);
+    }
+
+    /**
+     * Chooses what deleting a record of this type does to the records referring to it.
+     */
+    public synchronized void setDeletePolicy(EntityType type, DeletePolicy policy) {
+        deletePolicies.put(type, policy);
+    }
+
+    /**
+     * @return how many records refer to customers, appointments or services that no
+     *         longer exist; cleanUpOrphans() fixes them
+     */
+    public synchronized int countOrphans() {
+        int orphans = 0;
+        for (Appointment appointment : appointments.values()) {
+            if (isDangling(customers, appointment.getCustomerId()) || hasDangling(appointment.getServiceIds())) {
+                orphans++;
+            }
+        }
+        for (Invoice invoice : invoices.values()) {
+            if (isDangling(customers, invoice.getCustomerId()) || isDangling(appointments, invoice.getAppointmentId())
+                    || hasDangling(invoice.getServiceIds())) {
+                orphans++;
+            }
+        }
+        return orphans;
+    }
+
+    /**
+     * Fixes records that refer to customers, appointments or services that no longer
+     * exist, such as invoices left behind when deleting a customer didn't delete them.
+     * Each dangling reference is handled by the delete policy of the type it points to;
+     * references covered by RESTRICT are left alone, and paid invoices are never deleted,
+     * only unlinked. Nothing calls this on its own; it can delete records, so it is run
+     * on request.
+     *
+     * @return the number of records deleted or changed
+     */
+    public synchronized int cleanUpOrphans() {
+        int fixed = 0;
+        EnumSet<EntityType> taken = lockAllWrites();
+        try {
+            for (Appointment appointment : new ArrayList<>(appointments.values())) {
+                if (isDangling(customers, appointment.getCustomerId())) {
+                    fixed += resolveOrphan(EntityType.CUSTOMER, EntityType.APPOINTMENT, appointment.getId(),
+                            () -> setAppointmentCustomer(appointment, null));
+                } else if (hasDangling(appointment.getServiceIds())) {
+                    fixed += resolveOrphan(EntityType.SERVICE, EntityType.APPOINTMENT, appointment.getId(),
+                            () -> setAppointmentServices(appointment, existingServices(appointment.getServiceIds())));
+                }
+            }
+            for (Invoice invoice : new ArrayList<>(invoices.values())) {
+                if (!invoices.containsKey(invoice.getId())) continue; // Went with its appointment
+                if (isDangling(customers, invoice.getCustomerId())) {
+                    fixed += resolveOrphan(EntityType.CUSTOMER, EntityType.INVOICE, invoice.getId(),
+                            () -> setInvoiceCustomer(invoice, null));
+                } else if (isDangling(appointments, invoice.getAppointmentId())) {
+                    fixed += resolveOrphan(EntityType.APPOINTMENT, EntityType.INVOICE, invoice.getId(),
+                            () -> setInvoiceAppointment(invoice, null));
+                } else if (hasDangling(invoice.getServiceIds())) {
+                    fixed += resolveOrphan(EntityType.SERVICE, EntityType.INVOICE, invoice.getId(),
+                            () -> setInvoiceServices(invoice, existingServices(invoice.getServiceIds())));
+                }
+            }
+        } finally {
+            unlockWrites(taken);
+        }
+        if (fixed > 0) {
+            commit();
+        }
+        return fixed;
+    }
+
+    // Handles a record pointing at a missing record of parentType as if that had just been deleted
+    private int resolveOrphan(EntityType parentType, EntityType type, String id, Runnable nullify) {
+        DeletePolicy policy = deletePolicies.get(parentType);
+        if (policy == DeletePolicy.CASCADE && type == EntityType.INVOICE && isPaid(id)) {
+            policy = DeletePolicy.NULLIFY; // Financial history is kept
+        }
+        switch (policy) {
+            case CASCADE:
+                return delete(type, id) ? 1 : 0;
+            case NULLIFY:
+                nullify.run();
+                return 1;
+            default:
+                return 0;
+        }
+    }
+
+    private static boolean isDangling(Map<String, ?> records, String id) {
+        return id != null && !records.containsKey(id);
+    }
+
+    private boolean hasDangling(List<String> serviceIds) {
+        for (String serviceId : serviceIds) {
+            if (!services.containsKey(serviceId)) return true;
+        }
+        return false;
+    }
+
+    private List<String> existingServices(List<String> serviceIds) {
+        List<String> result = new ArrayList<>(serviceIds);
+        result.removeIf(serviceId -> !services.containsKey(serviceId));
+        return result;
+    }
+
+    /**
+     * Deletes a record after applying its type's delete policy to the records referring
+     * to it. Those are found through the reverse indexes, so the work is proportional to
+     * the number of records affected. Changes nothing and returns false if the policy is
+     * RESTRICT and anything refers to the record.
+     */
+    private boolean delete(EntityType type, String id) {
+        // Readers see the record and everything the policy does to other records change at once
+        EnumSet<EntityType> taken = lockAllWrites();
+        try {
+            DeletePolicy policy = deletePolicies.get(type);
+            if (policy == DeletePolicy.RESTRICT && isReferenced(type, id)) {
+                System.err.println("Not deleting " + type + " " + id + ": other records refer to it");
+                return false;
+            }
+            boolean cascade = policy == DeletePolicy.CASCADE;
+            // Paid invoices are financial history, so a cascade that would delete one is refused
+            if (cascade && hasPaidInvoices(type, id)) {
+                System.err.println("Not deleting " + type + " " + id + ": it has paid invoices");
+                return false;
+            }
+
+            switch (type) {
+                case CUSTOMER:
+                    for (String invoiceId : new ArrayList<>(indexes.invoicesByCustomer.get(id))) {
+                        if (cascade) {
+                            remove(EntityType.INVOICE, invoiceId);
+                        } else {
+                            setInvoiceCustomer(invoices.get(invoiceId), null);
+                        }
+                    }
+                    for (String appointmentId : new ArrayList<>(indexes.appointmentsByCustomer.get(id))) {
+                        if (cascade) {
+                            removeAppointment(appointmentId);
+                        } else {
+                            setAppointmentCustomer(appointments.get(appointmentId), null);
+                        }
+                    }
+                    break;
+                case APPOINTMENT:
+                    for (String invoiceId : new ArrayList<>(indexes.invoicesByAppointment.get(id))) {
+                        if (cascade) {
+                            remove(EntityType.INVOICE, invoiceId);
+                        } else {
+                            setInvoiceAppointment(invoices.get(invoiceId), null);
+                        }
+                    }
+                    break;
+                case SERVICE:
+                    for (String invoiceId : new ArrayList<>(indexes.invoicesByService.get(id))) {
+                        Invoice invoice = invoices.get(invoiceId);
+                        if (cascade) {
+                            remove(EntityType.INVOICE, invoiceId);
+                        } else {
+                            List<String> serviceIds = new ArrayList<>(invoice.getServiceIds());
+                            serviceIds.remove(id);
+                            setInvoiceServices(invoice, serviceIds);
+                        }
+                    }
+                    for (String appointmentId : new ArrayList<>(indexes.appointmentsByService.get(id))) {
+                        Appointment appointment = appointments.get(appointmentId);
+                        if (cascade) {
+                            removeAppointment(appointmentId);
+                        } else {
+                            List<String> serviceIds = new ArrayList<>(appointment.getServiceIds());
+                            serviceIds.remove(id);
+                            setAppointmentServices(appointment, serviceIds);
+                        }
+                    }
+                    break;
+                default:
+                    break;
+            }
+            remove(type, id);
+            return true;
+        } finally {
+            unlockWrites(taken);
+        }
+    }
+
+    // Removes an appointment swept up by a cascade; invoices still naming it just lose the link
+    private void removeAppointment(String appointmentId) {
+        for (String invoiceId : new ArrayList<>(indexes.invoicesByAppointment.get(appointmentId))) {
+            setInvoiceAppointment(invoices.get(invoiceId), null);
+        }
+        remove(EntityType.APPOINTMENT, appointmentId);
+    }
+
+    private boolean hasPaidInvoices(EntityType type, String id) {
+        Collection<String> invoiceIds;
+        switch (type) {
+            case CUSTOMER:
+                invoiceIds = indexes.invoicesByCustomer.get(id);
+                break;
+            case APPOINTMENT:
+                invoiceIds = indexes.invoicesByAppointment.get(id);
+                break;
+            case SERVICE:
+                invoiceIds = indexes.invoicesByService.get(id);
+                break;
+            default:
+                return false;
+        }
+        for (String invoiceId : invoiceIds) {
+            if (isPaid(invoiceId)) return true;
+        }
+        return false;
+    }
+
+    private boolean isPaid(String invoiceId) {
+        Invoice invoice = invoices.get(invoiceId);
+        return invoice != null && "PAID".equals(invoice.getStatus());
+    }
+
+    private boolean isReferenced(EntityType type, String id) {
+        switch (type) {
+            case CUSTOMER:
+                return !indexes.appointmentsByCustomer.get(id).isEmpty() || !indexes.invoicesByCustomer.get(id).isEmpty();
+            case APPOINTMENT:
+                return !indexes.invoicesByAppointment.get(id).isEmpty();
+            case SERVICE:
+                return !indexes.appointmentsByService.get(id).isEmpty() || !indexes.invoicesByService.get(id).isEmpty();
+            default:
+                return false;
+        }
+    }
+
+    // The reference changes below store an edited copy rather than editing the stored
+    // record, so whoever holds the record never sees it change; store()'s undo puts the
+    // original back.
+    private void setAppointmentCustomer(Appointment appointment, String customerId) {
+        Appointment changed = appointment.copy();
+        changed.setCustomerId(customerId);
+        store(EntityType.APPOINTMENT, changed.getId(), changed);
+    }
+
+    private void setAppointmentServices(Appointment appointment, List<String> serviceIds) {
+        Appointment changed = appointment.copy();
+        changed.setServiceIds(serviceIds);
+        store(EntityType.APPOINTMENT, changed.getId(), changed);
+    }
+
+    private void setInvoiceCustomer(Invoice invoice, String customerId) {
+        Invoice changed = invoice.copy();
+        changed.setCustomerId(customerId);
+        store(EntityType.INVOICE, changed.getId(), changed);
+    }
+
+    private void setInvoiceAppointment(Invoice invoice, String appointmentId) {
+        Invoice changed = invoice.copy();
+        changed.setAppointmentId(appointmentId);
+        store(EntityType.INVOICE, changed.getId(), changed);
+    }
+
+    // The total stays as billed; only the list of services changes
+    private void setInvoiceServices(Invoice invoice, List<String> serviceIds) {
+        Invoice changed = invoice.copy();
+        changed.setServiceIds(serviceIds);
+        store(EntityType.INVOICE, changed.getId(), changed);
+    }
+
+    /**
+     * Runs a read of one collection and its indexes under its read lock, which any
+     * number of readers can hold at once. Point reads take it too: the maps and indexes
+     * aren't thread-safe, so walking them while a writer resizes one could loop or see a
+     * half-built entry, and an optimistic stamp is only checked after the walk is over.
+     */
+    private <R> R readShared(EntityType type, Supplier<R> reader) {
+        if (Thread.holdsLock(this)) return reader.get();
+        StampedLock lock = locks.get(type);
+        long stamp = lock.readLock();
+        try {
+            return reader.get();
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    // Takes the write lock of a collection unless this thread already holds it.
+    // Callers hold this; returns false if there was nothing to take.
+    private boolean lockWrite(EntityType type) {
+        if (writeStamps[type.ordinal()] != 0) return false;
+        writeStamps[type.ordinal()] = locks.get(type).writeLock();
+        return true;
+    }
+
+    private void unlockWrite(EntityType type) {
+        long stamp = writeStamps[type.ordinal()];
+        writeStamps[type.ordinal()] = 0;
+        locks.get(type).unlockWrite(stamp);
+    }
+
+    /**
+     * Write-locks every collection, in a fixed order, for a change readers must see
+     * all or none of (a cascade, a batch, a reload).
+     *
+     * @return the locks taken, for unlockWrites
+     */
+    private EnumSet<EntityType> lockAllWrites() {
+        EnumSet<EntityType> taken = EnumSet.noneOf(EntityType.class);
+        for (EntityType type : EntityType.values()) {
+            if (lockWrite(type)) taken.add(type);
+        }
+        return taken;
+    }
+
+    private void unlockWrites(EnumSet<EntityType> taken) {
+        for (EntityType type : taken) {
+            unlockWrite(type);
+        }
+    }
+
+    // Puts an entity into its collection, updates the indexes and records the change
+    private void store(EntityType type, String id, Object entity) {
+        Map<String, Object> map = getMutableCollection(type);
+        Versioned record = (Versioned) entity;
+        long oldVersion = record.getVersion();
+        Object previous;
+        boolean locked = lockWrite(type);
+        try {
+            previous = map.put(id, entity);
+            // One past the stored record, so a stale copy can't be saved back with a new number
+            record.setVersion((previous != null ? ((Versioned) previous).getVersion() : oldVersion) + 1);
+            indexes.update(type, id, entity);
+        } finally {
+            if (locked) unlockWrite(type);
+        }
+        // A copy, so later edits to the live object don't reach published snapshots
+        versions.put(type, versions.get(type).plus(id, copyOf(type, entity)));
+        recordPut(type, formatRecord(type, entity));
+        if (undoLog != null) {
+            undoLog.add(() -> {
+                record.setVersion(oldVersion);
+                if (previous != null) {
+                    map.put(id, previous);
+                } else {
+                    map.remove(id);
+                }
+                indexes.update(type, id, previous);
+            });
+        }
+    }
+
+    // Removes an entity from its collection and the indexes and records the change
+    private void remove(EntityType type, String id) {
+        Map<String, Object> map = getMutableCollection(type);
+        Object previous;
+        boolean locked = lockWrite(type);
+        try {
+            previous = map.remove(id);
+            indexes.update(type, id, null);
+        } finally {
+            if (locked) unlockWrite(type);
+        }
+        versions.put(type, versions.get(type).minus(id));
+        recordDelete(type, id);
+        if (undoLog != null && previous != null) {
+            undoLog.add(() -> {
+                map.put(id, previous);
+                indexes.update(type, id, previous);
+            });
+        }
+    }
+
+    /**
+     * The lookup indexes over the collections. Kept together so reindex() can build a
+     * fresh set while the old one stays in use, then swap it in.
+     */
+    private static final class Indexes {
+        // customerId -> ids of that customer's appointments and invoices
+        private final SecondaryIndex appointmentsByCustomer = new SecondaryIndex();
+        private final SecondaryIndex invoicesByCustomer = new SecondaryIndex();
+        // Appointments in date order
+        private final TimeIndex<Appointment> appointmentsByTime = new TimeIndex<>();
+        // Invoices by status, with counts and totals
+        private final StatusIndex<Invoice> invoicesByStatus = new StatusIndex<>();
+        // Substring search over customer names, emails and phones
+        private final TrigramIndex customerSearch = new TrigramIndex();
+        private final PrefixIndex customerCompletions = new PrefixIndex();
+        private final BkTree customerNames = new BkTree();
+        // Keyed by digits-only phone and lowercased email
+        private final SecondaryIndex customersByPhone = new SecondaryIndex();
+        private final SecondaryIndex customersByEmail = new SecondaryIndex();
+        // Reverse references for deletes: appointment -> invoices, service -> appointments and invoices
+        private final SecondaryIndex invoicesByAppointment = new SecondaryIndex();
+        private final ReferenceIndex appointmentsByService = new ReferenceIndex();
+        private final ReferenceIndex invoicesByService = new ReferenceIndex();
+        // Keyed by trimmed, uppercased service code; codes are kept unique
+        private final SecondaryIndex servicesByCode = new SecondaryIndex();
+
+        // Files an entity in the indexes for its type, or takes it out when entity is null
+        void update(EntityType type, String id, Object entity) {
+            switch (type) {
+                case CUSTOMER:
+                    if (entity == null) {
+                        customerSearch.remove(id);
+                        customerCompletions.remove(id);
+                        customerNames.remove(id);
+                        customersByPhone.remove(id);
+                        customersByEmail.remove(id);
+                    } else {
+                        Customer customer = (Customer) entity;
+                        customerSearch.put(id, customer.getFirstName(), customer.getLastName(),
+                                customer.getEmail(), customer.getPhone());
+                        customerCompletions.put(id, customer.getFullName(), customer.getLastName(),
+                                customer.getEmail(), digitsOnly(customer.getPhone()));
+                        customerNames.put(id, customer.getFirstName(), customer.getLastName());
+                        putOrRemove(customersByPhone, id, digitsOnly(customer.getPhone()));
+                        putOrRemove(customersByEmail, id, normalizeEmail(customer.getEmail()));
+                    }
+                    break;
+                case APPOINTMENT:
+                    if (entity == null) {
+                        appointmentsByCustomer.remove(id);
+                        appointmentsByTime.remove(id);
+                        appointmentsByService.remove(id);
+                    } else {
+                        Appointment appointment = (Appointment) entity;
+                        putOrRemove(appointmentsByCustomer, id, appointment.getCustomerId());
+                        appointmentsByService.put(id, appointment.getServiceIds());
+                        appointmentsByTime.put(id, appointment.getDateTime(), appointment);
+                    }
+                    break;
+                case SERVICE:
+                    if (entity == null) {
+                        servicesByCode.remove(id);
+                    } else {
+                        putOrRemove(servicesByCode, id, normalizeCode(((Service) entity).getCode()));
+                    }
+                    break;
+                case INVOICE:
+                    if (entity == null) {
+                        invoicesByCustomer.remove(id);
+                        invoicesByStatus.remove(id);
+                        invoicesByAppointment.remove(id);
+                        invoicesByService.remove(id);
+                    } else {
+                        Invoice invoice = (Invoice) entity;
+                        putOrRemove(invoicesByCustomer, id, invoice.getCustomerId());
+                        putOrRemove(invoicesByAppointment, id, invoice.getAppointmentId());
+                        invoicesByService.put(id, invoice.getServiceIds());
+                        invoicesByStatus.put(id, invoice.getStatus(), invoice.getTotalAmount(), invoice);
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    // Null and blank keys aren't indexed, so records without one (a customer with no phone,
+    // an invoice with no appointment) aren't all filed together
+    private static void putOrRemove(SecondaryIndex index, String id, String key) {
+        if (key == null || key.isEmpty()) {
+            index.remove(id);
+        } else {
+            index.put(id, key);
+        }
+    }
+
+    private static String normalizeEmail(String email) {
+        return email == null ? "" : email.trim().toLowerCase();
+    }
+
+    private static String digitsOnly(String text) {
+        if (text == null) return "";
+        StringBuilder sb = new StringBuilder(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c >= '0' && c <= '9') sb.append(c);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Rebuilds every index from the collections, e.g. as a maintenance job. The new
+     * indexes are built to the side while readers go on using the old ones, so they only
+     * wait for the swap. Changes wait for the whole rebuild, since one made partway
+     * through could be missing from the new indexes.
+     */
+    public synchronized void reindex() {
+        // Every change holds this lock, so the collections can be read without the others
+        Indexes rebuilt = buildIndexes();
+        EnumSet<EntityType> taken = lockAllWrites();
+        try {
+            indexes = rebuilt;
+        } finally {
+            unlockWrites(taken);
+        }
+    }
+
+    private Indexes buildIndexes() {
+        Indexes built = new Indexes();
+        for (EntityType type : EntityType.values()) {
+            for (Map.Entry<String, ?> entry : getCollection(type).entrySet()) {
+                built.update(type, entry.getKey(), entry.getValue());
+            }
+        }
+        return built;
+    }
+
+    private void rebuildVersions() {
+        for (EntityType type : EntityType.values()) {
+            PersistentMap<Object> copies = PersistentMap.empty();
+            for (Map.Entry<String, ?> entry : getCollection(type).entrySet()) {
+                copies = copies.plus(entry.getKey(), copyOf(type, entry.getValue()));
+            }
+            versions.put(type, copies);
+        }
+    }
+
+    // Makes the current versions the ones snapshot() hands out
+    private void publish() {
+        snapshot = new Snapshot(++version, versions);
+    }
+
+    private static Object copyOf(EntityType type, Object entity) {
+        switch (type) {
+            case CUSTOMER:
+                return ((Customer) entity).copy();
+            case APPOINTMENT:
+                return ((Appointment) entity).copy();
+            case SERVICE:
+                return ((Service) entity).copy();
+            case INVOICE:
+                return ((Invoice) entity).copy();
+            default:
+                throw new IllegalArgumentException("Unknown type " + type);
+        }
+    }
+
+    private void recordPut(EntityType type, String record) {
+        dirty.add(type);
+        if (journalMode) {
+            pendingRecords.add(new DataJournal.Record(DataJournal.PUT, type, record));
+        }
+    }
+
+    private void recordDelete(EntityType type, String id) {
+        dirty.add(type);
+        if (journalMode) {
+            pendingRecords.add(new DataJournal.Record(DataJournal.DELETE, type, id));
+        }
+    }
+
+    /**
+     * Called at the end of every mutation. With a background writer the change is
+     * handed off and the caller returns immediately; otherwise it is written now.
+     */
+    private void commit() {
+        if (undoLog != null) {
+            return; // A batch is being applied; it commits once at the end
+        }
+        publish();
+        if (writer != null) {
+            writer.submit();
+        } else {
+            flushPending();
+        }
+    }
+
+    /**
+     * Writes everything recorded since the last flush: the pending journal records
+     * with a single sync, or a snapshot of the dirty collections when a checkpoint is due.
+     * Runs on the writer thread, or under this lock when there is no writer, so
+     * flushes never overlap. Only the capture step holds the lock; the disk I/O does not.
+     */
+    private boolean flushPending() {
+        List<DataJournal.Record> records;
+        EnumMap<EntityType, String> snapshot = null;
+        EnumMap<EntityType, ByteBuffer> binarySnapshot = null;
+        synchronized (this) {
+            if (loadFailed) {
+                System.err.println("Not saving: the data failed to load, and saving would overwrite the files");
+                return false;
+            }
+            records = pendingRecords;
+            pendingRecords = new ArrayList<>();
+            if (checkpointRequested || !journalMode
+                    || journal.size() + records.size() >= CHECKPOINT_THRESHOLD) {
+                snapshot = new EnumMap<>(EntityType.class);
+                binarySnapshot = new EnumMap<>(EntityType.class);
+                for (EntityType type : dirty) {
+                    if (binarySnapshots) {
+                        binarySnapshot.put(type, BinarySnapshot.encode(type, getCollection(type).values()));
+                    } else {
+                        snapshot.put(type, formatCollection(type));
+                    }
+                }
+                dirty.clear();
+                checkpointRequested = false;
+            }
+        }
+
+        try {
+            synchronized (ioLock) {
+                // Journal first even when checkpointing, so a crash part way through the
+                // snapshot can still be recovered from the older files plus the journal
+                if (!records.isEmpty()) {
+                    for (DataJournal.Record record : records) {
+                        journal.append(record);
+                    }
+                    journal.sync();
+                }
+                if (snapshot != null) {
+                    writeSnapshot(snapshot, binarySnapshot);
+                }
+            }
+            return true;
+        } catch (IOException e) {
+            System.err.println("Error saving data: " + e.getMessage());
+            e.printStackTrace();
+            synchronized (this) {
+                // Retry with a full snapshot, which covers whatever didn't make it to disk
+                for (DataJournal.Record record : records) {
+                    dirty.add(record.type);
+                }
+                if (snapshot != null) {
+                    dirty.addAll(snapshot.keySet());
+                    dirty.addAll(binarySnapshot.keySet());
+                }
+                checkpointRequested = true;
+            }
+            return false;
+        }
+    }
+
+    private void writeSnapshot(EnumMap<EntityType, String> snapshot,
+                               EnumMap<EntityType, ByteBuffer> binarySnapshot) throws IOException {
+        long filesWritten = 0, bytesWritten = 0, filesSkipped = 0, bytesSkipped = 0;
+        for (EntityType type : EntityType.values()) {
+            Path textFile = Paths.get(getDataFile(type));
+            Path binaryFile = getBinaryFile(getDataFile(type));
+            String contents = snapshot.get(type);
+            ByteBuffer binaryContents = binarySnapshot.get(type);
+            if (contents != null) {
+                bytesWritten += SnapshotFiles.write(textFile, contents);
+                SnapshotFiles.delete(binaryFile);
+                filesWritten++;
+            } else if (binaryContents != null) {
+                bytesWritten += SnapshotFiles.writeBytes(binaryFile, binaryContents);
+                SnapshotFiles.delete(textFile);
+                filesWritten++;
+            } else {
+                filesSkipped++;
+                bytesSkipped += textFile.toFile().length() + binaryFile.toFile().length();
+            }
+        }
+        journal.reset();
+        saveStats = saveStats.plus(filesWritten, bytesWritten, filesSkipped, bytesSkipped);
     }
 
-    public Customer getCustomer(String id) {
-        return customers.get(id);
+    // customers.txt is stored as customers.bin in binary mode
+    private static Path getBinaryFile(String textFile) {
+        return Paths.get(textFile.substring(0, textFile.lastIndexOf('.')) + ".bin");
     }
 
-    public List<Customer> getAllCustomers() {
-        return new ArrayList<>(customers.values());
+    private Map<String, ?> getCollection(EntityType type) {
+        switch (type) {
+            case CUSTOMER: return customers;
+            case APPOINTMENT: return appointments;
+            case SERVICE: return services;
+            default: return invoices;
+        }
     }
 
-    public List<Customer> searchCustomers(String query) {
-        query = query.toLowerCase();
-        String finalQuery = query;
-        return customers.values().stream()
-                .filter(c -> c.getFirstName().toLowerCase().contains(finalQuery) ||
-                        c.getLastName().toLowerCase().contains(finalQuery) ||
-                        c.getEmail().toLowerCase().contains(finalQuery) ||
-                        c.getPhone().toLowerCase().contains(finalQuery))
-                .collect(Collectors.toList());
+    // Only for storing records of the matching type
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> getMutableCollection(EntityType type) {
+        return (Map<String, Object>) getCollection(type);
     }
 
-    // Appointment methods
-    public String addAppointment(Appointment appointment) {
-        if (appointment.getId() == null || appointment.getId().isEmpty()) {
-            appointment.setId(UUID.randomUUID().toString());
+    private String formatRecord(EntityType type, Object record) {
+        switch (type) {
+            case CUSTOMER: return formatCustomer((Customer) record);
+            case APPOINTMENT: return formatAppointment((Appointment) record);
+            case SERVICE: return formatService((Service) record);
+            default: return formatInvoice((Invoice) record);
         }
-        appointments.put(appointment.getId(), appointment);
-        saveData();
-        return appointment.getId();
     }
 
-    public boolean updateAppointment(Appointment appointment) {
-        if (appointments.containsKey(appointment.getId())) {
-            appointments.put(appointment.getId(), appointment);
-            saveData();
-            return true;
+    private String formatCollection(EntityType type) {
+        StringBuilder sb = new StringBuilder();
+        switch (type) {
+            case CUSTOMER:
+                for (Customer customer : customers.values()) {
+                    sb.append(formatCustomer(customer)).append('\n');
+                }
+                break;
+            case APPOINTMENT:
+                for (Appointment appointment : appointments.values()) {
+                    sb.append(formatAppointment(appointment)).append('\n');
+                }
+                break;
+            case SERVICE:
+                for (Service service : services.values()) {
+                    sb.append(formatService(service)).append('\n');
+                }
+                break;
+            case INVOICE:
+                for (Invoice invoice : invoices.values()) {
+                    sb.append(formatInvoice(invoice)).append('\n');
+                }
+                break;
         }
-        return false;
+        return sb.toString();
     }
 
-    public boolean deleteAppointment(String appointmentId) {
-        if (appointments.containsKey(appointmentId)) {
-            appointments.remove(appointmentId);
-            saveData();
-            return true;
+    private void applyJournalRecord(char op, EntityType type, String payload) {
+        boolean delete = op == DataJournal.DELETE;
+        RecordTokenizer fields = delete ? null : replayFields.reset(payload);
+        dirty.add(type);
+        switch (type) {
+            case CUSTOMER:
+                if (delete) {
+                    customers.remove(payload);
+                } else {
+                    Customer customer = parseCustomer(fields);
+                    if (customer != null) customers.put(customer.getId(), customer);
+                }
+                break;
+            case APPOINTMENT:
+                if (delete) {
+                    appointments.remove(payload);
+                } else {
+                    Appointment appointment = parseAppointment(fields);
+                    if (appointment != null) appointments.put(appointment.getId(), appointment);
+                }
+                break;
+            case SERVICE:
+                if (delete) {
+                    services.remove(payload);
+                } else {
+                    Service service = parseService(fields);
+                    if (service != null) services.put(service.getId(), service);
+                }
+                break;
+            case INVOICE:
+                if (delete) {
+                    invoices.remove(payload);
+                } else {
+                    Invoice invoice = parseInvoice(fields);
+                    if (invoice != null) invoices.put(invoice.getId(), invoice);
+                }
+                break;
         }
-        return false;
     }
 
-    public Appointment getAppointment(String id) {
-        return appointments.get(id);
+    private String formatCustomer(Customer customer) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(customer.getId()).append("|");
+        sb.append(escapeField(customer.getFirstName())).append("|");
+        sb.append(escapeField(customer.getLastName())).append("|");
+        sb.append(escapeField(customer.getEmail())).append("|");
+        sb.append(escapeField(customer.getPhone())).append("|");
+        sb.append(escapeField(customer.getAddress())).append("|");
+        sb.append(escapeField(customer.getVehicleMake())).append("|");
+        sb.append(escapeField(customer.getVehicleModel())).append("|");
+        sb.append(escapeField(customer.getVehicleYear())).append("|");
+        sb.append(escapeField(customer.getVehicleColor())).append("|");
+        sb.append(escapeField(customer.getNotes())).append("|");
+        TimestampCodec.append(sb, customer.getCreatedAt());
+        return sb.toString();
     }
 
-    public List<Appointment> getAllAppointments() {
-        return new ArrayList<>(appointments.values());
+    private Customer parseCustomer(RecordTokenizer fields) {
+        if (fields.fieldCount() < 12) return null;
+
+        Customer customer = new Customer();
+        customer.setId(fields.next());
+        customer.setFirstName(fields.next());
+        customer.setLastName(fields.next());
+        customer.setEmail(fields.next());
+        customer.setPhone(fields.next());
+        customer.setAddress(fields.next());
+        customer.setVehicleMake(fields.next());
+        customer.setVehicleModel(fields.next());
+        customer.setVehicleYear(fields.next());
+        customer.setVehicleColor(fields.next());
+        customer.setNotes(fields.next());
+        customer.setCreatedAt(fields.nextTimestamp());
+        return customer.getCreatedAt() != null ? customer : null;
     }
 
-    public List<Appointment> getAppointmentsByDate(LocalDate date) {
-        return appointments.values().stream()
-                .filter(a -> a.getDateTime().toLocalDate().equals(date))
-                .collect(Collectors.toList());
+    // Appointment persistence
+    private String formatAppointment(Appointment appointment) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(appointment.getId()).append("|");
+        sb.append(referenceField(appointment.getCustomerId())).append("|");
+        TimestampCodec.append(sb, appointment.getDateTime()).append("|");
+        sb.append(escapeField(appointment.getLocation())).append("|");
+
+        // Save service IDs as comma-separated values
+        sb.append(appointment.getServiceIds().stream()
+                .collect(Collectors.joining(","))).append("|");
+
+        sb.append(escapeField(appointment.getStatus())).append("|");
+        sb.append(escapeField(appointment.getNotes()));
+        return sb.toString();
     }
 
-    public List<Appointment> getAppointmentsByCustomer(String customerId) {
-        return appointments.values().stream()
-                .filter(a -> a.getCustomerId().equals(customerId))
-                .collect(Collectors.toList());
-    }
+    private Appointment parseAppointment(RecordTokenizer fields) {
+        if (fields.fieldCount() < 6) return null;
 
-    // Service methods
-    public String addService(Service service) {
-        if (service.getId() == null || service.getId().isEmpty()) {
-            service.setId(UUID.randomUUID().toString());
-        }
-        services.put(service.getId(), service);
-        saveData();
-        return service.getId();
-    }
+        Appointment appointment = new Appointment();
+        appointment.setId(fields.next());
+        appointment.setCustomerId(parseReference(fields.next()));
+        appointment.setDateTime(fields.nextTimestamp());
+        if (appointment.getDateTime() == null) return null;
+        appointment.setLocation(fields.next());
+        appointment.setServiceIds(fields.nextList());
+        appointment.setStatus(fields.next());
 
-    public boolean updateService(Service service) {
-        if (services.containsKey(service.getId())) {
-            services.put(service.getId(), service);
-            saveData();
-            return true;
+        if (fields.hasNext()) {
+            appointment.setNotes(fields.next());
         }
-        return false;
+        return appointment;
     }
 
-    public boolean deleteService(String serviceId) {
-        if (services.containsKey(serviceId)) {
-            services.remove(serviceId);
-            saveData();
-            return true;
-        }
-        return false;
+    // Service persistence
+    private String formatService(Service service) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(service.getId()).append("|");
+        sb.append(escapeField(service.getCode())).append("|");
+        sb.append(escapeField(service.getName())).append("|");
+        sb.append(escapeField(service.getDescription())).append("|");
+        sb.append(service.getPrice());
+        return sb.toString();
     }
 
-    public Service getService(String id) {
-        return services.get(id);
-    }
+    private Service parseService(RecordTokenizer fields) {
+        if (fields.fieldCount() < 5) return null;
 
-    public List<Service> getAllServices() {
-        return new ArrayList<>(services.values());
+        Service service = new Service();
+        service.setId(fields.next());
+        service.setCode(fields.next());
+        service.setName(fields.next());
+        service.setDescription(fields.next());
+        service.setPrice(Double.parseDouble(fields.next()));
+        return service;
     }
 
-    // Invoice methods
-    public String createInvoice(String customerId, List<String> serviceIds, String appointmentId) {
-        Invoice invoice = new Invoice();
-        invoice.setId(UUID.randomUUID().toString());
-        invoice.setCustomerId(customerId);
-        invoice.setAppointmentId(appointmentId);
-        invoice.setCreationDate(LocalDateTime.now());
-        invoice.setStatus("PENDING");
-
-        double total = 0;
-        for (String serviceId : serviceIds) {
-            Service service = services.get(serviceId);
-            if (service != null) {
-                invoice.getServiceIds().add(serviceId);
-                total += service.getPrice();
-            }
+    // Invoice persistence
+    private String formatInvoice(Invoice invoice) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(invoice.getId()).append("|");
+        sb.append(referenceField(invoice.getCustomerId())).append("|");
+        sb.append(referenceField(invoice.getAppointmentId())).append("|");
+
+        // Save service IDs as comma-separated values
+        sb.append(invoice.getServiceIds().stream()
+                .collect(Collectors.joining(","))).append("|");
+
+        sb.append(invoice.getTotalAmount()).append("|");
+        sb.append(escapeField(invoice.getStatus())).append("|");
+        TimestampCodec.append(sb, invoice.getCreationDate()).append("|");
+
+        // Payment date might be null
+        if (invoice.getPaymentDate() != null) {
+            TimestampCodec.append(sb, invoice.getPaymentDate());
         }
+        return sb.toString();
+    }
 
-        invoice.setTotalAmount(total);
-        invoices.put(invoice.getId(), invoice);
+    private Invoice parseInvoice(RecordTokenizer fields) {
+        if (fields.fieldCount() < 7) return null;
 
-        saveData();
-        return invoice.getId();
+        Invoice invoice = new Invoice();
+        invoice.setId(fields.next());
+        invoice.setCustomerId(parseReference(fields.next()));
+        invoice.setAppointmentId(parseReference(fields.next()));
+        invoice.setServiceIds(fields.nextList());
+        invoice.setTotalAmount(Double.parseDouble(fields.next()));
+        invoice.setStatus(fields.next());
+        invoice.setCreationDate(fields.nextTimestamp());
+        if (invoice.getCreationDate() == null) return null;
+
+        // Payment date is empty or missing until the invoice is paid
+        invoice.setPaymentDate(fields.nextTimestamp());
+        return invoice;
     }
 
-    public boolean updateInvoiceStatus(String invoiceId, String status) {
-        Invoice invoice = invoices.get(invoiceId);
-        if (invoice != null) {
-            invoice.setStatus(status);
-            if (status.equals("PAID")) {
-                invoice.setPaymentDate(LocalDateTime.now());
-            }
-            saveData();
-            return true;
-        }
-        return false;
-    }
 
-    public Invoice getInvoice(String id) {
-        return invoices.get(id);
+    // A missing reference (an invoice without an appointment, say) is stored as an empty field
+    private static String referenceField(String id) {
+        return id == null ? "" : id;
     }
 
-    public List<Invoice> getAllInvoices() {
-        return new ArrayList<>(invoices.values());
+    // Older files wrote a missing reference as "null"
+    private static String parseReference(String field) {
+        return field == null || field.isEmpty() || field.equals("null") ? null : field;
     }
 
-    public List<Invoice> getInvoicesByCustomer(String customerId) {
-        return invoices.values().stream()
-                .filter(i -> i.getCustomerId().equals(customerId))
-                .collect(Collectors.toList());
+    private void reportSkipped(String recordType, int skipped) {
+        if (skipped > 0) {
+            System.err.println("Skipped " + skipped + " malformed " + recordType + " records");
+        }
     }
 
-    public List<Invoice> getPendingInvoices() {
-        return invoices.values().stream()
-                .filter(i -> i.getStatus().equals("PENDING"))
-                .collect(Collectors.toList());
+    /**
+     * Helper method to escape pipe characters in fields
+     * so they don't interfere with parsing
+     */
+    private String escapeField(String field) {
+        return RecordTokenizer.escape(field);
     }
 
 
-    public boolean saveData() {
+
+    /**
+     * Copies the data files next to themselves with the given suffix.
+     * The journal is folded into the snapshot files first so the copies are complete.
+     */
+    public boolean backupData(String backupSuffix) {
+        if (!saveData()) {
+            System.err.println("Error creating backup: data could not be saved");
+            return false;
+        }
         try {
-            saveCustomers();
-            saveAppointments();
-            saveServices();
-            saveInvoices();
+            synchronized (ioLock) {
+                for (EntityType type : EntityType.values()) {
+                    String textFile = getDataFile(type);
+                    copyFile(textFile, textFile + "." + backupSuffix);
+                    String binaryFile = getBinaryFile(textFile).toString();
+                    copyFile(binaryFile, binaryFile + "." + backupSuffix);
+                }
+            }
             return true;
         } catch (IOException e) {
-            System.err.println("Error saving data: " + e.getMessage());
-            e.printStackTrace();
+            System.err.println("Error creating backup: " + e.getMessage());
             return false;
         }
     }
 
-    public boolean loadData() {
-        try {
-            boolean customersLoaded = loadCustomers();
-            boolean appointmentsLoaded = loadAppointments();
-            boolean servicesLoaded = loadServices();
-            boolean invoicesLoaded = loadInvoices();
+    private void copyFile(String source, String destination) throws IOException {
+        Path sourceFile = Paths.get(source);
+        if (!Files.exists(sourceFile)) return;
+        BackupManager.transfer(sourceFile, Paths.get(destination));
+    }
 
-            // Return true if at least services were loaded successfully
-            return servicesLoaded;
+    /**
+     * Backs up the data directory into a new generation under data/backups.
+     * Files unchanged since the previous generation are hard-linked rather than copied,
+     * so a backup when little has changed takes milliseconds.
+     *
+     * @return what the backup did, or null if it failed
+     */
+    public BackupManager.Generation createBackup() {
+        // Get changes still waiting for the flush window into the files first
+        flush();
+        try {
+            BackupManager.Generation generation;
+            synchronized (ioLock) {
+                generation = backups.backup(getBackupFiles());
+            }
+            System.out.println("Created backup " + generation);
+            return generation;
         } catch (IOException e) {
-            System.err.println("Error loading data: " + e.getMessage());
+            System.err.println("Error creating backup: " + e.getMessage());
             e.printStackTrace();
-            return false;
+            return null;
         }
     }
-    private void saveCustomers() throws IOException {
-        try (PrintWriter writer = new PrintWriter(new FileWriter(CUSTOMERS_FILE))) {
-            for (Customer customer : customers.values()) {
-                StringBuilder sb = new StringBuilder();
-                sb.append(customer.getId()).append("|");
-                sb.append(customer.getFirstName()).append("|");
-                sb.append(customer.getLastName()).append("|");
-                sb.append(customer.getEmail()).append("|");
-                sb.append(customer.getPhone()).append("|");
-                sb.append(escapeField(customer.getAddress())).append("|");
-                sb.append(customer.getVehicleMake()).append("|");
-                sb.append(customer.getVehicleModel()).append("|");
-                sb.append(customer.getVehicleYear()).append("|");
-                sb.append(customer.getVehicleColor()).append("|");
-                sb.append(escapeField(customer.getNotes())).append("|");
-                sb.append(customer.getCreatedAt().format(DATE_FORMATTER));
-
-                writer.println(sb.toString());
-            }
-        }
-    }
-
-    private boolean loadCustomers() throws IOException {
-        File file = new File(CUSTOMERS_FILE);
-        if (!file.exists()) return false;
-
-        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
-            String line;
-            customers.clear();
-
-            while ((line = reader.readLine()) != null) {
-                String[] parts = line.split("\\|");
-                if (parts.length >= 12) {
-                    Customer customer = new Customer();
-                    customer.setId(parts[0]);
-                    customer.setFirstName(parts[1]);
-                    customer.setLastName(parts[2]);
-                    customer.setEmail(parts[3]);
-                    customer.setPhone(parts[4]);
-                    customer.setAddress(unescapeField(parts[5]));
-                    customer.setVehicleMake(parts[6]);
-                    customer.setVehicleModel(parts[7]);
-                    customer.setVehicleYear(parts[8]);
-                    customer.setVehicleColor(parts[9]);
-                    customer.setNotes(unescapeField(parts[10]));
-                    customer.setCreatedAt(LocalDateTime.parse(parts[11], DATE_FORMATTER));
-
-                    customers.put(customer.getId(), customer);
-                }
-            }
-            return true;
+
+    /**
+     * @return the names of the backups that can be restored, oldest first
+     */
+    public List<String> listBackups() {
+        try {
+            return backups.list();
+        } catch (IOException e) {
+            System.err.println("Error listing backups: " + e.getMessage());
+            return new ArrayList<>();
         }
     }
 
-    // Appointment persistence
-    private void saveAppointments() throws IOException {
-        try (PrintWriter writer = new PrintWriter(new FileWriter(APPOINTMENTS_FILE))) {
-            for (Appointment appointment : appointments.values()) {
-                StringBuilder sb = new StringBuilder();
-                sb.append(appointment.getId()).append("|");
-                sb.append(appointment.getCustomerId()).append("|");
-                sb.append(appointment.getDateTime().format(DATE_FORMATTER)).append("|");
-                sb.append(escapeField(appointment.getLocation())).append("|");
-
-                // Save service IDs as comma-separated values
-                sb.append(appointment.getServiceIds().stream()
-                        .collect(Collectors.joining(","))).append("|");
-
-                sb.append(appointment.getStatus()).append("|");
-                sb.append(escapeField(appointment.getNotes()));
-
-                writer.println(sb.toString());
-            }
-        }
-    }
-
-    private boolean loadAppointments() throws IOException {
-        File file = new File(APPOINTMENTS_FILE);
-        if (!file.exists()) return false;
-
-        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
-            String line;
-            appointments.clear();
-
-            while ((line = reader.readLine()) != null) {
-                String[] parts = line.split("\\|");
-                if (parts.length >= 6) {
-                    Appointment appointment = new Appointment();
-                    appointment.setId(parts[0]);
-                    appointment.setCustomerId(parts[1]);
-                    appointment.setDateTime(LocalDateTime.parse(parts[2], DATE_FORMATTER));
-                    appointment.setLocation(unescapeField(parts[3]));
-
-                    // Parse service IDs
-                    List<String> serviceIds = new ArrayList<>();
-                    if (parts[4] != null && !parts[4].isEmpty()) {
-                        String[] serviceIdArray = parts[4].split(",");
-                        for (String serviceId : serviceIdArray) {
-                            serviceIds.add(serviceId);
+    /**
+     * Replaces the data files with the given backup generation and reloads everything
+     * from them. Changes not yet saved are discarded.
+     */
+    public boolean restoreBackup(String generation) {
+        boolean async = isAsyncPersistence();
+        // With the writer stopped, all disk I/O happens under this lock
+        setAsyncPersistence(false);
+        try {
+            synchronized (this) {
+                journal.close();
+                List<Path> restored = backups.restore(generation, Paths.get(DATA_DIRECTORY));
+
+                // Remove anything the backup didn't include, so it can't be picked up on load
+                for (Path file : getBackupFiles()) {
+                    for (Path candidate : SnapshotFiles.generations(file)) {
+                        if (!restored.contains(candidate)) {
+                            Files.deleteIfExists(candidate);
                         }
                     }
-                    appointment.setServiceIds(serviceIds);
-
-                    appointment.setStatus(parts[5]);
-
-                    if (parts.length > 6) {
-                        appointment.setNotes(unescapeField(parts[6]));
-                    }
+                }
 
-                    appointments.put(appointment.getId(), appointment);
+                pendingRecords.clear();
+                dirty.clear();
+                checkpointRequested = false;
+                binarySnapshots = false;
+                // Readers wait for the reload rather than see the collections empty
+                EnumSet<EntityType> taken = lockAllWrites();
+                try {
+                    customers.clear();
+                    appointments.clear();
+                    services.clear();
+                    invoices.clear();
+                    System.out.println("Restored backup " + generation);
+                    return loadData();
+                } finally {
+                    unlockWrites(taken);
                 }
             }
-            return true;
+        } catch (IOException e) {
+            System.err.println("Error restoring backup: " + e.getMessage());
+            e.printStackTrace();
+            return false;
+        } finally {
+            if (async) {
+                setAsyncPersistence(true);
+            }
         }
     }
 
-    // Service persistence
-    private void saveServices() throws IOException {
-        try (PrintWriter writer = new PrintWriter(new FileWriter(SERVICES_FILE))) {
-            for (Service service : services.values()) {
-                StringBuilder sb = new StringBuilder();
-                sb.append(service.getId()).append("|");
-                sb.append(service.getCode()).append("|");
-                sb.append(service.getName()).append("|");
-                sb.append(escapeField(service.getDescription())).append("|");
-                sb.append(service.getPrice());
-
-                writer.println(sb.toString());
-            }
+    // Every file that makes up the saved state: the snapshots in either format and the journal
+    private static List<Path> getBackupFiles() {
+        List<Path> files = new ArrayList<>();
+        for (EntityType type : EntityType.values()) {
+            files.add(Paths.get(getDataFile(type)));
+            files.add(getBinaryFile(getDataFile(type)));
         }
+        files.add(Paths.get(JOURNAL_FILE));
+        return files;
     }
 
-    private boolean loadServices() throws IOException {
-        File file = new File(SERVICES_FILE);
-        if (!file.exists()) return false;
+    /**
+     * Running totals of how much work saveData() did, and how much it avoided
+     * by skipping files whose collection had not changed. Immutable: each save
+     * makes a new one, so the numbers always add up to the same set of saves.
+     */
+    public static class SaveStats {
+        private final long saves;
+        private final long filesWritten;
+        private final long bytesWritten;
+        private final long filesSkipped;
+        private final long bytesSkipped;
+        private final long lastFilesSkipped;
+        private final long lastBytesSkipped;
+
+        SaveStats() {
+            this(0, 0, 0, 0, 0, 0, 0);
+        }
 
-        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
-            String line;
-            services.clear();
+        private SaveStats(long saves, long filesWritten, long bytesWritten, long filesSkipped,
+                          long bytesSkipped, long lastFilesSkipped, long lastBytesSkipped) {
+            this.saves = saves;
+            this.filesWritten = filesWritten;
+            this.bytesWritten = bytesWritten;
+            this.filesSkipped = filesSkipped;
+            this.bytesSkipped = bytesSkipped;
+            this.lastFilesSkipped = lastFilesSkipped;
+            this.lastBytesSkipped = lastBytesSkipped;
+        }
 
-            while ((line = reader.readLine()) != null) {
-                String[] parts = line.split("\\|");
-                if (parts.length >= 5) {
-                    Service service = new Service();
-                    service.setId(parts[0]);
-                    service.setCode(parts[1]);
-                    service.setName(parts[2]);
-                    service.setDescription(unescapeField(parts[3]));
-                    service.setPrice(Double.parseDouble(parts[4]));
+        // These totals with one more save added
+        SaveStats plus(long filesWritten, long bytesWritten, long filesSkipped, long bytesSkipped) {
+            return new SaveStats(saves + 1, this.filesWritten + filesWritten, this.bytesWritten + bytesWritten,
+                    this.filesSkipped + filesSkipped, this.bytesSkipped + bytesSkipped, filesSkipped, bytesSkipped);
+        }
 
-                    services.put(service.getId(), service);
-                }
-            }
-            return true;
+        public long getSaves() { return saves; }
+        public long getFilesWritten() { return filesWritten; }
+        public long getBytesWritten() { return bytesWritten; }
+        public long getFilesSkipped() { return filesSkipped; }
+        public long getBytesSkipped() { return bytesSkipped; }
+        public long getLastFilesSkipped() { return lastFilesSkipped; }
+        public long getLastBytesSkipped() { return lastBytesSkipped; }
+
+        @Override
+        public String toString() {
+            return String.format("%d saves: wrote %d files (%d bytes), skipped %d files (%d bytes)",
+                    saves, filesWritten, bytesWritten, filesSkipped, bytesSkipped);
         }
     }
 
-    // Invoice persistence
-    private void saveInvoices() throws IOException {
-        try (PrintWriter writer = new PrintWriter(new FileWriter(INVOICES_FILE))) {
-            for (Invoice invoice : invoices.values()) {
-                StringBuilder sb = new StringBuilder();
-                sb.append(invoice.getId()).append("|");
-                sb.append(invoice.getCustomerId()).append("|");
-                sb.append(invoice.getAppointmentId()).append("|");
+    /**
+     * How long startup loading took, per file and overall
+     */
+    public static class LoadStats {
+        private final EnumMap<EntityType, Long> nanos = new EnumMap<>(EntityType.class);
+        private final EnumMap<EntityType, Integer> records = new EnumMap<>(EntityType.class);
+        private long totalNanos;
+
+        synchronized void record(EntityType type, int count, long elapsedNanos) {
+            records.put(type, count);
+            nanos.put(type, elapsedNanos);
+        }
+
+        synchronized void finish(long elapsedNanos) {
+            totalNanos = elapsedNanos;
+        }
 
-                // Save service IDs as comma-separated values
-                sb.append(invoice.getServiceIds().stream()
-                        .collect(Collectors.joining(","))).append("|");
+        public synchronized long getMillis(EntityType type) {
+            return nanos.getOrDefault(type, 0L) / 1_000_000;
+        }
 
-                sb.append(invoice.getTotalAmount()).append("|");
-                sb.append(invoice.getStatus()).append("|");
-                sb.append(invoice.getCreationDate().format(DATE_FORMATTER)).append("|");
+        public synchronized int getRecords(EntityType type) {
+            return records.getOrDefault(type, 0);
+        }
 
-                // Payment date might be null
-                sb.append(invoice.getPaymentDate() != null ?
-                        invoice.getPaymentDate().format(DATE_FORMATTER) : "");
+        public synchronized long getTotalMillis() {
+            return totalNanos / 1_000_000;
+        }
 
-                writer.println(sb.toString());
+        @Override
+        public synchronized String toString() {
+            StringBuilder sb = new StringBuilder();
+            for (EntityType type : nanos.keySet()) {
+                sb.append(type.name().toLowerCase()).append(' ')
+                        .append(getRecords(type)).append(" in ").append(getMillis(type)).append(" ms, ");
             }
+            return sb.append("total ").append(getTotalMillis()).append(" ms").toString();
         }
     }
 
-    private boolean loadInvoices() throws IOException {
-        File file = new File(INVOICES_FILE);
-        if (!file.exists()) return false;
+    private static class BatchStep {
+        final String description;
+        final BooleanSupplier action;
 
-        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
-            String line;
-            invoices.clear();
+        BatchStep(String description, BooleanSupplier action) {
+            this.description = description;
+            this.action = action;
+        }
+    }
 
-            while ((line = reader.readLine()) != null) {
-                String[] parts = line.split("\\|");
-                if (parts.length >= 7) {
-                    Invoice invoice = new Invoice();
-                    invoice.setId(parts[0]);
-                    invoice.setCustomerId(parts[1]);
-                    invoice.setAppointmentId(parts[2]);
+    /**
+     * A set of adds, updates and deletes that is applied as one unit. Other threads
+     * never see part of a batch, and if any change fails (for example an update of a
+     * record that doesn't exist) the whole batch is rolled back. The changes are
+     * written to disk with a single journal sync instead of one save per change.
+     * Rolling back restores the collections; it can't undo changes the caller made
+     * to an entity's fields before queuing it.
+     */
+    public class Batch {
+        private final List<BatchStep> steps = new ArrayList<>();
+        private boolean committed;
+
+        private Batch() {}
+
+        public String addCustomer(Customer customer) {
+            assignId(customer.getId(), customer::setId);
+            add("add customer " + customer.getId(), () -> {
+                CustomerManager.this.addCustomer(customer);
+                return true;
+            });
+            return customer.getId();
+        }
 
-                    // Parse service IDs
-                    List<String> serviceIds = new ArrayList<>();
-                    if (parts[3] != null && !parts[3].isEmpty()) {
-                        String[] serviceIdArray = parts[3].split(",");
-                        for (String serviceId : serviceIdArray) {
-                            serviceIds.add(serviceId);
-                        }
-                    }
-                    invoice.setServiceIds(serviceIds);
+        public void updateCustomer(Customer customer) {
+            add("update customer " + customer.getId(), () -> CustomerManager.this.updateCustomer(customer));
+        }
 
-                    invoice.setTotalAmount(Double.parseDouble(parts[4]));
-                    invoice.setStatus(parts[5]);
-                    invoice.setCreationDate(LocalDateTime.parse(parts[6], DATE_FORMATTER));
+        public void deleteCustomer(String customerId) {
+            add("delete customer " + customerId, () -> CustomerManager.this.deleteCustomer(customerId));
+        }
 
-                    // Handle payment date if present
-                    if (parts.length > 7 && !parts[7].isEmpty()) {
-                        invoice.setPaymentDate(LocalDateTime.parse(parts[7], DATE_FORMATTER));
-                    }
+        public String addAppointment(Appointment appointment) {
+            assignId(appointment.getId(), appointment::setId);
+            add("add appointment " + appointment.getId(), () -> {
+                CustomerManager.this.addAppointment(appointment);
+                return true;
+            });
+            return appointment.getId();
+        }
 
-                    invoices.put(invoice.getId(), invoice);
-                }
+        public void updateAppointment(Appointment appointment) {
+            add("update appointment " + appointment.getId(), () -> CustomerManager.this.updateAppointment(appointment));
+        }
+
+        public void deleteAppointment(String appointmentId) {
+            add("delete appointment " + appointmentId, () -> CustomerManager.this.deleteAppointment(appointmentId));
+        }
+
+        public String addService(Service service) {
+            assignId(service.getId(), service::setId);
+            add("add service " + service.getId(), () -> CustomerManager.this.addService(service) != null);
+            return service.getId();
+        }
+
+        public void updateService(Service service) {
+            add("update service " + service.getId(), () -> CustomerManager.this.updateService(service));
+        }
+
+        public void deleteService(String serviceId) {
+            add("delete service " + serviceId, () -> CustomerManager.this.deleteService(serviceId));
+        }
+
+        public void createInvoice(String customerId, List<String> serviceIds, String appointmentId) {
+            add("create invoice for customer " + customerId, () -> {
+                CustomerManager.this.createInvoice(customerId, serviceIds, appointmentId);
+                return true;
+            });
+        }
+
+        public void updateInvoiceStatus(String invoiceId, String status) {
+            add("update invoice " + invoiceId, () -> CustomerManager.this.updateInvoiceStatus(invoiceId, status));
+        }
+
+        public int size() {
+            return steps.size();
+        }
+
+        /**
+         * Applies every queued change and waits until they are saved.
+         * A batch can only be committed once.
+         */
+        public BatchResult commit() {
+            if (committed) {
+                throw new IllegalStateException("Batch has already been committed");
             }
-            return true;
+            committed = true;
+            return applyBatch(steps);
+        }
+
+        private void add(String description, BooleanSupplier action) {
+            if (committed) {
+                throw new IllegalStateException("Batch has already been committed");
+            }
+            steps.add(new BatchStep(description, action));
         }
-    }
 
+        // New records get their id now so later steps in the batch can refer to them
+        private void assignId(String id, Consumer<String> setId) {
+            if (id == null || id.isEmpty()) {
+                setId.accept(UUID.randomUUID().toString());
+            }
+        }
+    }
 
     /**
-     * Helper method to escape pipe characters in fields
-     * so they don't interfere with parsing
+     * Outcome of Batch.commit()
      */
-    private String escapeField(String field) {
-        if (field == null) return "";
-        return field.replace("|", "\\|").replace("\n", "\\n");
+    public static class BatchResult {
+        private final int mutations;
+        private final long applyNanos;
+        private final long persistNanos;
+        private final boolean durable;
+        private final String error;
+
+        BatchResult(int mutations, long applyNanos, long persistNanos, boolean durable, String error) {
+            this.mutations = mutations;
+            this.applyNanos = applyNanos;
+            this.persistNanos = persistNanos;
+            this.durable = durable;
+            this.error = error;
+        }
+
+        /**
+         * @return true if every change was applied; false if the batch was rolled back
+         */
+        public boolean isApplied() { return error == null; }
+        public int getMutations() { return mutations; }
+        public long getApplyMillis() { return applyNanos / 1_000_000; }
+        public long getPersistMillis() { return persistNanos / 1_000_000; }
+        public long getElapsedMillis() { return (applyNanos + persistNanos) / 1_000_000; }
+        // True once the changes are on disk
+        public boolean isDurable() { return durable; }
+        public String getError() { return error; }
+
+        @Override
+        public String toString() {
+            if (!isApplied()) {
+                return "rolled back after " + getApplyMillis() + " ms: " + error;
+            }
+            return String.format("%d changes applied in %d ms, saved in %d ms%s",
+                    mutations, getApplyMillis(), getPersistMillis(), durable ? "" : " (save failed)");
+        }
     }
 
     /**
-     * Helper method to unescape pipe characters in fields
+     * What query() should return: which collection, a filter, an order and a page.
+     * Start from customers(), appointments(), services() or invoices(). Without an order,
+     * records come back by id.
      */
-    private String unescapeField(String field) {
-        if (field == null) return "";
-        return field.replace("\\|", "|").replace("\\n", "\n");
-    }
+    public static class Query<T> {
+        private final EntityType type;
+        private Predicate<? super T> filter = record -> true;
+        private Comparator<? super T> order;
+        private int offset;
+        private int limit = 50;
+        private Cursor<T> after;
+
+        private Query(EntityType type) {
+            this.type = type;
+        }
 
+        public static Query<Customer> customers() { return new Query<>(EntityType.CUSTOMER); }
+        public static Query<Appointment> appointments() { return new Query<>(EntityType.APPOINTMENT); }
+        public static Query<Service> services() { return new Query<>(EntityType.SERVICE); }
+        public static Query<Invoice> invoices() { return new Query<>(EntityType.INVOICE); }
 
+        // Calling where more than once keeps records matching every filter
+        public Query<T> where(Predicate<? super T> filter) {
+            Predicate<? super T> previous = this.filter;
+            this.filter = record -> previous.test(record) && filter.test(record);
+            return this;
+        }
 
-    public boolean backupData(String backupSuffix) {
-        try {
-            copyFile(CUSTOMERS_FILE, CUSTOMERS_FILE + "." + backupSuffix);
-            copyFile(APPOINTMENTS_FILE, APPOINTMENTS_FILE + "." + backupSuffix);
-            copyFile(SERVICES_FILE, SERVICES_FILE + "." + backupSuffix);
-            copyFile(INVOICES_FILE, INVOICES_FILE + "." + backupSuffix);
-            return true;
-        } catch (IOException e) {
-            System.err.println("Error creating backup: " + e.getMessage());
-            return false;
+        public Query<T> orderBy(Comparator<? super T> order) {
+            this.order = order;
+            return this;
+        }
+
+        public Query<T> offset(int offset) {
+            this.offset = Math.max(0, offset);
+            return this;
+        }
+
+        // A limit of 0 just counts the matches
+        public Query<T> limit(int limit) {
+            this.limit = Math.max(0, limit);
+            return this;
+        }
+
+        /**
+         * Starts after the last record of an earlier page with the same filter and order.
+         * Unlike an offset, this doesn't skip or repeat records when others are added or
+         * removed in between.
+         */
+        public Query<T> after(Cursor<T> cursor) {
+            this.after = cursor;
+            return this;
         }
     }
 
-    private void copyFile(String source, String destination) throws IOException {
-        File sourceFile = new File(source);
-        if (!sourceFile.exists()) return;
+    /**
+     * Where a page ended, for Query.after(). Opaque to callers.
+     */
+    public static class Cursor<T> {
+        private final String id;
+        private final T record;
 
-        try (
-                FileInputStream in = new FileInputStream(sourceFile);
-                FileOutputStream out = new FileOutputStream(new File(destination))
-        ) {
-            byte[] buffer = new byte[1024];
-            int length;
-            while ((length = in.read(buffer)) > 0) {
-                out.write(buffer, 0, length);
-            }
+        Cursor(String id, T record) {
+            this.id = id;
+            this.record = record;
+        }
+    }
+
+    /**
+     * One page of query() results
+     */
+    public static class Page<T> {
+        private final List<T> items;
+        private final int total;
+        private final int offset;
+        private final Cursor<T> next;
+
+        Page(List<T> items, int total, int offset, Cursor<T> next) {
+            this.items = Collections.unmodifiableList(items);
+            this.total = total;
+            this.offset = offset;
+            this.next = next;
         }
+
+        public List<T> getItems() { return items; }
+        // How many records match the filter across all pages
+        public int getTotal() { return total; }
+        public int getOffset() { return offset; }
+        public boolean hasMore() { return next != null; }
+        // Pass to Query.after() for the next page; null on the last page
+        public Cursor<T> getNextCursor() { return next; }
     }
 
+    /**
+     * Every collection as of one commit, from snapshot(). Later changes never show up in
+     * it. The records are the snapshot's own copies, shared by everyone reading it, so
+     * they must not be modified; edit the record from getCustomer() and friends instead.
+     */
+    public static class Snapshot {
+        private final long version;
+        private final EnumMap<EntityType, PersistentMap<Object>> collections;
+
+        private Snapshot(long version, EnumMap<EntityType, PersistentMap<Object>> collections) {
+            this.version = version;
+            this.collections = new EnumMap<>(collections);
+        }
+
+        // Increases with every commit, so two snapshots with the same version hold the same data
+        public long getVersion() { return version; }
+
+        public Customer getCustomer(String id) { return get(EntityType.CUSTOMER, id); }
+        public Appointment getAppointment(String id) { return get(EntityType.APPOINTMENT, id); }
+        public Service getService(String id) { return get(EntityType.SERVICE, id); }
+        public Invoice getInvoice(String id) { return get(EntityType.INVOICE, id); }
+
+        public List<Customer> getAllCustomers() { return getAll(EntityType.CUSTOMER); }
+        public List<Appointment> getAllAppointments() { return getAll(EntityType.APPOINTMENT); }
+        public List<Service> getAllServices() { return getAll(EntityType.SERVICE); }
+        public List<Invoice> getAllInvoices() { return getAll(EntityType.INVOICE); }
+
+        public int getCount(EntityType type) {
+            return collections.get(type).size();
+        }
+
+        public List<Invoice> getInvoicesByStatus(String status) {
+            List<Invoice> result = new ArrayList<>();
+            collections.get(EntityType.INVOICE).forEach((id, invoice) -> {
+                if (status.equals(((Invoice) invoice).getStatus())) result.add((Invoice) invoice);
+            });
+            return result;
+        }
+
+        // One pass over the invoices, however many customers are asked for
+        public List<Invoice> getInvoicesByCustomers(Collection<String> customerIds) {
+            Set<String> wanted = new HashSet<>(customerIds);
+            List<Invoice> result = new ArrayList<>();
+            collections.get(EntityType.INVOICE).forEach((id, invoice) -> {
+                if (wanted.contains(((Invoice) invoice).getCustomerId())) result.add((Invoice) invoice);
+            });
+            return result;
+        }
+
+        @SuppressWarnings("unchecked")
+        private <T> T get(EntityType type, String id) {
+            return (T) collections.get(type).get(id);
+        }
 
+        @SuppressWarnings("unchecked")
+        private <T> List<T> getAll(EntityType type) {
+            return (List<T>) collections.get(type).values();
+        }
+    }
 
     // Data classes
-    public static class Customer {
+
+    /**
+     * A record with a version number, which goes up by one each time the record is saved.
+     * The compareAndSet methods use it to tell whether a copy is still current.
+     */
+    public interface Versioned {
+        long getVersion();
+        void setVersion(long version);
+    }
+
+    public static class Customer implements Versioned {
         private String id;
+        private long version;
         private String firstName;
         private String lastName;
         private String email;
@@ -583,6 +2671,9 @@ public class CustomerManager {
         public String getId() { return id; }
         public void setId(String id) { this.id = id; }
 
+        public long getVersion() { return version; }
+        public void setVersion(long version) { this.version = version; }
+
         public String getFirstName() { return firstName; }
         public void setFirstName(String firstName) { this.firstName = firstName; }
 
@@ -619,10 +2710,29 @@ public class CustomerManager {
         public String getFullName() {
             return firstName + " " + lastName;
         }
+
+        public Customer copy() {
+            Customer copy = new Customer();
+            copy.id = id;
+            copy.version = version;
+            copy.firstName = firstName;
+            copy.lastName = lastName;
+            copy.email = email;
+            copy.phone = phone;
+            copy.address = address;
+            copy.vehicleMake = vehicleMake;
+            copy.vehicleModel = vehicleModel;
+            copy.vehicleYear = vehicleYear;
+            copy.vehicleColor = vehicleColor;
+            copy.notes = notes;
+            copy.createdAt = createdAt;
+            return copy;
+        }
     }
 
-    public static class Appointment {
+    public static class Appointment implements Versioned {
         private String id;
+        private long version;
         private String customerId;
         private LocalDateTime dateTime;
         private String location;
@@ -639,6 +2749,9 @@ public class CustomerManager {
         public String getId() { return id; }
         public void setId(String id) { this.id = id; }
 
+        public long getVersion() { return version; }
+        public void setVersion(long version) { this.version = version; }
+
         public String getCustomerId() { return customerId; }
         public void setCustomerId(String customerId) { this.customerId = customerId; }
 
@@ -656,10 +2769,24 @@ public class CustomerManager {
 
         public String getNotes() { return notes; }
         public void setNotes(String notes) { this.notes = notes; }
+
+        public Appointment copy() {
+            Appointment copy = new Appointment();
+            copy.id = id;
+            copy.version = version;
+            copy.customerId = customerId;
+            copy.dateTime = dateTime;
+            copy.location = location;
+            copy.serviceIds = serviceIds == null ? null : new ArrayList<>(serviceIds);
+            copy.status = status;
+            copy.notes = notes;
+            return copy;
+        }
     }
 
-    public static class Service {
+    public static class Service implements Versioned {
         private String id;
+        private long version;
         private String code;
         private String name;
         private String description;
@@ -679,6 +2806,9 @@ public class CustomerManager {
         public String getId() { return id; }
         public void setId(String id) { this.id = id; }
 
+        public long getVersion() { return version; }
+        public void setVersion(long version) { this.version = version; }
+
         public String getCode() { return code; }
         public void setCode(String code) { this.code = code; }
 
@@ -690,10 +2820,22 @@ public class CustomerManager {
 
         public double getPrice() { return price; }
         public void setPrice(double price) { this.price = price; }
+
+        public Service copy() {
+            Service copy = new Service();
+            copy.id = id;
+            copy.version = version;
+            copy.code = code;
+            copy.name = name;
+            copy.description = description;
+            copy.price = price;
+            return copy;
+        }
     }
 
-    public static class Invoice {
+    public static class Invoice implements Versioned {
         private String id;
+        private long version;
         private String customerId;
         private String appointmentId;
         private List<String> serviceIds;
@@ -710,6 +2852,9 @@ public class CustomerManager {
         public String getId() { return id; }
         public void setId(String id) { this.id = id; }
 
+        public long getVersion() { return version; }
+        public void setVersion(long version) { this.version = version; }
+
         public String getCustomerId() { return customerId; }
         public void setCustomerId(String customerId) { this.customerId = customerId; }
 
@@ -730,10 +2875,26 @@ public class CustomerManager {
 
         public LocalDateTime getPaymentDate() { return paymentDate; }
         public void setPaymentDate(LocalDateTime paymentDate) { this.paymentDate = paymentDate; }
+
+        public Invoice copy() {
+            Invoice copy = new Invoice();
+            copy.id = id;
+            copy.version = version;
+            copy.customerId = customerId;
+            copy.appointmentId = appointmentId;
+            copy.serviceIds = serviceIds == null ? null : new ArrayList<>(serviceIds);
+            copy.totalAmount = totalAmount;
+            copy.status = status;
+            copy.creationDate = creationDate;
+            copy.paymentDate = paymentDate;
+            return copy;
+        }
     }
 
     // For demo/testing purposes
     public void addSampleData() {
+        Batch batch = newBatch();
+
         // Add sample customers
         Customer c1 = new Customer();
         c1.setFirstName("John");
@@ -745,7 +2906,7 @@ public class CustomerManager {
         c1.setVehicleModel("Accord");
         c1.setVehicleYear("2019");
         c1.setVehicleColor("Black");
-        String c1Id = addCustomer(c1);
+        String c1Id = batch.addCustomer(c1);
 
         Customer c2 = new Customer();
         c2.setFirstName("Emily");
@@ -757,32 +2918,28 @@ public class CustomerManager {
         c2.setVehicleModel("Camry");
         c2.setVehicleYear("2021");
         c2.setVehicleColor("Silver");
-        String c2Id = addCustomer(c2);
+        String c2Id = batch.addCustomer(c2);
 
         // Add sample appointments
         Appointment a1 = new Appointment();
         a1.setCustomerId(c1Id);
         a1.setDateTime(LocalDateTime.now().plusDays(2).withHour(10).withMinute(0));
         a1.setLocation("123 Main St, Anytown, USA");
-        a1.getServiceIds().add(services.values().stream()
-                .filter(s -> s.getCode().equals("FULL_DETAIL"))
-                .findFirst().get().getId());
-        String a1Id = addAppointment(a1);
+        a1.getServiceIds().add(getServiceByCode("FULL_DETAIL").getId());
+        String a1Id = batch.addAppointment(a1);
 
         Appointment a2 = new Appointment();
         a2.setCustomerId(c2Id);
         a2.setDateTime(LocalDateTime.now().plusDays(3).withHour(14).withMinute(30));
         a2.setLocation("456 Oak Ave, Somewhere, USA");
-        a2.getServiceIds().add(services.values().stream()
-                .filter(s -> s.getCode().equals("BASIC_WASH"))
-                .findFirst().get().getId());
-        a2.getServiceIds().add(services.values().stream()
-                .filter(s -> s.getCode().equals("CLAY_POLISH"))
-                .findFirst().get().getId());
-        String a2Id = addAppointment(a2);
+        a2.getServiceIds().add(getServiceByCode("BASIC_WASH").getId());
+        a2.getServiceIds().add(getServiceByCode("CLAY_POLISH").getId());
+        String a2Id = batch.addAppointment(a2);
 
         // Create invoices
-        createInvoice(c1Id, a1.getServiceIds(), a1Id);
-        createInvoice(c2Id, a2.getServiceIds(), a2Id);
+        batch.createInvoice(c1Id, a1.getServiceIds(), a1Id);
+        batch.createInvoice(c2Id, a2.getServiceIds(), a2Id);
+
+        System.out.println("Added sample data: " + batch.commit());
     }
 }
\ No newline at end of file
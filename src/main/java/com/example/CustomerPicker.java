@@ -0,0 +1,98 @@
+package com.example;
+
+import javafx.scene.control.ComboBox;
+import javafx.scene.control.ListCell;
+import javafx.scene.control.Tooltip;
+import javafx.util.StringConverter;
+
+/**
+ * Turns a customer ComboBox into a typeahead: the user types part of a name, email or
+ * phone number and the drop-down shows the best few completions from the customer
+ * manager's prefix index. The full customer list is never loaded into the control.
+ * Typed text only selects a customer when it is exactly one of the suggestions;
+ * anything else leaves the value empty and marks the field as invalid.
+ */
+class CustomerPicker {
+    static final int SUGGESTIONS = 20;
+    private static final String INVALID_STYLE = "-fx-border-color: red;";
+
+    private CustomerPicker() {
+    }
+
+    static void install(ComboBox<CustomerManager.Customer> comboBox, CustomerManager customerManager) {
+        comboBox.setEditable(true);
+
+        comboBox.setConverter(new StringConverter<CustomerManager.Customer>() {
+            @Override
+            public String toString(CustomerManager.Customer customer) {
+                return customer == null ? "" : customer.getFullName();
+            }
+
+            @Override
+            public CustomerManager.Customer fromString(String text) {
+                if (text == null || text.trim().isEmpty()) {
+                    markInvalid(comboBox, false);
+                    return null;
+                }
+                // A guess would silently attach the record to whoever completes first
+                for (CustomerManager.Customer customer : comboBox.getItems()) {
+                    if (customer.getFullName().equals(text.trim())) {
+                        markInvalid(comboBox, false);
+                        return customer;
+                    }
+                }
+                markInvalid(comboBox, true);
+                return null;
+            }
+        });
+
+        comboBox.setCellFactory(param -> new ListCell<CustomerManager.Customer>() {
+            @Override
+            protected void updateItem(CustomerManager.Customer customer, boolean empty) {
+                super.updateItem(customer, empty);
+                if (empty || customer == null) {
+                    setText(null);
+                } else {
+                    String phone = customer.getPhone();
+                    setText(phone == null || phone.isBlank()
+                            ? customer.getFullName()
+                            : customer.getFullName() + "  (" + phone + ")");
+                }
+            }
+        });
+
+        comboBox.getEditor().textProperty().addListener((obs, oldText, text) -> {
+            CustomerManager.Customer value = comboBox.getValue();
+            if (value != null && value.getFullName().equals(text)) {
+                return; // The text was filled in from a selection
+            }
+            suggest(comboBox, customerManager, text);
+            if (comboBox.getEditor().isFocused() && !comboBox.getItems().isEmpty()) {
+                comboBox.show();
+            }
+        });
+
+        comboBox.valueProperty().addListener((obs, oldValue, value) -> {
+            if (value != null) markInvalid(comboBox, false);
+        });
+
+        suggest(comboBox, customerManager, "");
+    }
+
+    /**
+     * Reloads the suggestions for whatever is typed, e.g. after customers change.
+     */
+    static void refresh(ComboBox<CustomerManager.Customer> comboBox, CustomerManager customerManager) {
+        CustomerManager.Customer value = comboBox.getValue();
+        suggest(comboBox, customerManager, value != null ? "" : comboBox.getEditor().getText());
+    }
+
+    private static void markInvalid(ComboBox<CustomerManager.Customer> comboBox, boolean invalid) {
+        comboBox.setStyle(invalid ? INVALID_STYLE : "");
+        comboBox.setTooltip(invalid ? new Tooltip("Pick a customer from the list") : null);
+    }
+
+    private static void suggest(ComboBox<CustomerManager.Customer> comboBox, CustomerManager customerManager, String text) {
+        comboBox.getItems().setAll(customerManager.completeCustomers(text == null ? "" : text, SUGGESTIONS));
+    }
+}
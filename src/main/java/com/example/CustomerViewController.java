@@ -7,16 +7,31 @@ import javafx.scene.control.cell.PropertyValueFactory;
 import javafx.scene.layout.*;
 import javafx.util.Callback;
 import java.time.format.DateTimeFormatter;
+import java.util.Comparator;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
 
 public class CustomerViewController {
+    private static final int PAGE_SIZE = 50;
+    private static final Comparator<CustomerManager.Customer> BY_NAME = Comparator
+            .comparing(CustomerManager.Customer::getLastName, Comparator.nullsFirst(String.CASE_INSENSITIVE_ORDER))
+            .thenComparing(CustomerManager.Customer::getFirstName, Comparator.nullsFirst(String.CASE_INSENSITIVE_ORDER));
+
     private final CustomerManager customerManager;
+    // Mutations go through here, off the FX thread
+    private final AsyncCustomerManager asyncManager;
     private final BorderPane view;
     private TableView<CustomerManager.Customer> customerTable;
+    private Pagination pagination;
+    // Page index -> where that page starts, for every page reached so far; page 0 starts at null
+    private final TreeMap<Integer, CustomerManager.Cursor<CustomerManager.Customer>> pageStarts = new TreeMap<>();
 
-    public CustomerViewController(CustomerManager customerManager) {
-        this.customerManager = customerManager;
+    public CustomerViewController(AsyncCustomerManager asyncManager) {
+        this.asyncManager = asyncManager;
+        this.customerManager = asyncManager.getCustomerManager();
         this.view = new BorderPane();
         createCustomerView();
     }
@@ -38,17 +53,16 @@ public class CustomerViewController {
         searchBtn.setOnAction(e -> {
             String query = searchField.getText().trim();
             if (!query.isEmpty()) {
-                List<CustomerManager.Customer> results = customerManager.searchCustomers(query);
-                refreshTable(results);
+                showSearchResults(findCustomers(query));
             } else {
-                refreshTable(customerManager.getAllCustomers());
+                showAllCustomers();
             }
         });
 
         Button clearBtn = new Button("Clear");
         clearBtn.setOnAction(e -> {
             searchField.clear();
-            refreshTable(customerManager.getAllCustomers());
+            showAllCustomers();
         });
 
         Button addBtn = new Button("Add Customer");
@@ -89,10 +103,13 @@ public class CustomerViewController {
         actionsCol.setCellFactory(createActionCellFactory());
 
         customerTable.getColumns().addAll(nameCol, emailCol, phoneCol, vehicleCol, actionsCol);
-        refreshTable(customerManager.getAllCustomers());
+
+        // Only the page on screen is fetched from the customer manager
+        pagination = new Pagination();
+        showAllCustomers();
 
         view.setTop(topBar);
-        view.setCenter(customerTable);
+        view.setCenter(pagination);
     }
 
     private Callback<TableColumn<CustomerManager.Customer, Void>, TableCell<CustomerManager.Customer, Void>> createActionCellFactory() {
@@ -117,12 +134,20 @@ public class CustomerViewController {
                             Alert alert = new Alert(Alert.AlertType.CONFIRMATION);
                             alert.setTitle("Delete Customer");
                             alert.setHeaderText("Delete Customer: " + customer.getFullName());
-                            alert.setContentText("Are you sure you want to delete this customer? This will also remove all associated appointments and invoices.");
+                            alert.setContentText("Are you sure you want to delete this customer? This will also remove their appointments and unpaid invoices.");
 
                             Optional<ButtonType> result = alert.showAndWait();
                             if (result.isPresent() && result.get() == ButtonType.OK) {
-                                customerManager.deleteCustomer(customer.getId());
-                                refreshTable(customerManager.getAllCustomers());
+                                asyncManager.deleteCustomer(customer.getId()).thenAccept(deleted -> {
+                                    if (!deleted) {
+                                        Alert failed = new Alert(Alert.AlertType.ERROR);
+                                        failed.setTitle("Delete Failed");
+                                        failed.setHeaderText(null);
+                                        failed.setContentText("This customer has paid invoices or other records that must be kept, so they can't be deleted.");
+                                        failed.showAndWait();
+                                    }
+                                    showAllCustomers();
+                                });
                             }
                         });
 
@@ -153,7 +178,8 @@ public class CustomerViewController {
 
     private void showCustomerDialog(CustomerManager.Customer customer) {
         boolean isNewCustomer = customer == null;
-        customer = isNewCustomer ? new CustomerManager.Customer() : customer;
+        // Edits go to a copy, which is saved only if nobody else saved the customer meanwhile
+        customer = isNewCustomer ? new CustomerManager.Customer() : customer.copy();
 
         // Create the dialog
         Dialog<CustomerManager.Customer> dialog = new Dialog<>();
@@ -246,15 +272,70 @@ public class CustomerViewController {
         Optional<CustomerManager.Customer> result = dialog.showAndWait();
 
         result.ifPresent(c -> {
-            if (isNewCustomer) {
-                customerManager.addCustomer(c);
-            } else {
-                customerManager.updateCustomer(c);
+            if (isNewCustomer && !confirmNotDuplicate(c)) {
+                return;
             }
-            refreshTable(customerManager.getAllCustomers());
+            CompletableFuture<?> saving = isNewCustomer
+                    ? asyncManager.addCustomer(c)
+                    : asyncManager.compareAndSetCustomer(c);
+            saving.whenComplete((saved, error) -> {
+                if (AsyncCustomerManager.isStaleVersion(error)) {
+                    showEditConflict(c);
+                }
+                showAllCustomers();
+            });
         });
     }
 
+    private void showEditConflict(CustomerManager.Customer customer) {
+        Alert alert = new Alert(Alert.AlertType.WARNING);
+        alert.setTitle("Customer Changed");
+        alert.setHeaderText(null);
+        alert.setContentText(customer.getFullName() + " was changed by someone else while you were editing, "
+                + "so your changes weren't saved. Open the customer again to see the latest details.");
+        alert.showAndWait();
+    }
+
+    // Phone numbers and emails are looked up exactly first, falling back to substring search
+    // and then to names within a couple of typos
+    private List<CustomerManager.Customer> findCustomers(String query) {
+        List<CustomerManager.Customer> results;
+        if (query.contains("@")) {
+            results = customerManager.findByEmail(query);
+        } else if (query.matches("[0-9()+.\\- ]{7,}")) {
+            results = customerManager.findByPhone(query);
+        } else {
+            results = List.of();
+        }
+        if (results.isEmpty()) {
+            results = customerManager.searchCustomers(query);
+        }
+        return results.isEmpty() ? customerManager.fuzzySearchCustomers(query) : results;
+    }
+
+    // Returns false if the user chose not to save a customer that looks like a duplicate
+    private boolean confirmNotDuplicate(CustomerManager.Customer customer) {
+        List<CustomerManager.Customer> duplicates = customerManager.findDuplicates(customer);
+        if (duplicates.isEmpty()) {
+            return true;
+        }
+
+        StringBuilder message = new StringBuilder("These customers have the same phone number or email:\n");
+        for (CustomerManager.Customer duplicate : duplicates) {
+            message.append("\n").append(duplicate.getFullName())
+                    .append("  ").append(duplicate.getPhone())
+                    .append("  ").append(duplicate.getEmail());
+        }
+        message.append("\n\nSave anyway?");
+
+        Alert alert = new Alert(Alert.AlertType.CONFIRMATION);
+        alert.setTitle("Possible Duplicate");
+        alert.setHeaderText("Possible duplicate of an existing customer");
+        alert.setContentText(message.toString());
+        Optional<ButtonType> result = alert.showAndWait();
+        return result.isPresent() && result.get() == ButtonType.OK;
+    }
+
     private void showCustomerAppointments(CustomerManager.Customer customer) {
         Dialog<Void> dialog = new Dialog<>();
         dialog.setTitle("Appointments for " + customer.getFullName());
@@ -356,6 +437,37 @@ public class CustomerViewController {
         dialog.showAndWait();
     }
 
+    private void showAllCustomers() {
+        int total = customerManager.query(CustomerManager.Query.customers().limit(0)).getTotal();
+        pagination.setPageCount(Math.max(1, (total + PAGE_SIZE - 1) / PAGE_SIZE));
+        pageStarts.clear();
+        pageStarts.put(0, null);
+        pagination.setPageFactory(pageIndex -> {
+            // Resume from the nearest page already reached, so stepping through pages costs
+            // one page each; only a jump past them skips records by offset
+            Map.Entry<Integer, CustomerManager.Cursor<CustomerManager.Customer>> start = pageStarts.floorEntry(pageIndex);
+            CustomerManager.Page<CustomerManager.Customer> page = customerManager.query(CustomerManager.Query.customers()
+                    .orderBy(BY_NAME)
+                    .after(start.getValue())
+                    .offset((pageIndex - start.getKey()) * PAGE_SIZE)
+                    .limit(PAGE_SIZE));
+            if (page.hasMore()) {
+                pageStarts.put(pageIndex + 1, page.getNextCursor());
+            }
+            refreshTable(page.getItems());
+            return customerTable;
+        });
+    }
+
+    // Search results are already narrowed down, so they go on one page
+    private void showSearchResults(List<CustomerManager.Customer> customers) {
+        pagination.setPageCount(1);
+        pagination.setPageFactory(pageIndex -> {
+            refreshTable(customers);
+            return customerTable;
+        });
+    }
+
     private void refreshTable(List<CustomerManager.Customer> customers) {
         customerTable.setItems(FXCollections.observableArrayList(customers));
     }
@@ -0,0 +1,165 @@
+package com.example;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only write-ahead journal for CustomerManager.
+ * Every mutation is written as one line "crc|op|type|payload", where payload is
+ * the same pipe-delimited record the snapshot files use (or just the id for a delete).
+ * On startup the journal is replayed on top of the last snapshot, and it is
+ * truncated again whenever a new snapshot is written.
+ */
+class DataJournal {
+    static final char PUT = 'P';
+    static final char DELETE = 'D';
+
+    /**
+     * Callback used by replay() for each intact journal record
+     */
+    interface Replayer {
+        void apply(char op, CustomerManager.EntityType type, String payload);
+    }
+
+    /**
+     * A journal record waiting to be written
+     */
+    static class Record {
+        final char op;
+        final CustomerManager.EntityType type;
+        final String payload;
+
+        Record(char op, CustomerManager.EntityType type, String payload) {
+            this.op = op;
+            this.type = type;
+            this.payload = payload;
+        }
+    }
+
+    private final File file;
+    private FileOutputStream stream;
+    private Writer writer;
+    private volatile int recordCount;
+
+    DataJournal(String path) {
+        this.file = new File(path);
+    }
+
+    /**
+     * Buffers a single record. It is not durable until sync() is called.
+     */
+    void append(Record record) throws IOException {
+        String body = record.op + "|" + record.type.getCode() + "|" + record.payload;
+        Writer out = openWriter();
+        out.write(Long.toHexString(checksum(body)));
+        out.write('|');
+        out.write(body);
+        out.write('\n');
+        recordCount++;
+    }
+
+    /**
+     * Flushes buffered records and forces them to disk. Callers append a whole
+     * batch of records first, so one sync covers all of them.
+     */
+    void sync() throws IOException {
+        if (writer == null) return;
+        writer.flush();
+        stream.getChannel().force(false);
+    }
+
+    /**
+     * Replays every intact record in the journal, oldest first.
+     * Replay stops at the first record with a bad checksum, since that can only be
+     * a torn write at the tail of the log from a crash. The torn tail is cut off
+     * so that new records are not appended after it.
+     *
+     * @return the number of records applied
+     */
+    int replay(Replayer replayer) throws IOException {
+        recordCount = 0;
+        if (!file.exists()) return 0;
+
+        long validBytes = 0;
+        boolean torn = false;
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                CustomerManager.EntityType type = null;
+                String body = null;
+                int crcEnd = line.indexOf('|');
+                if (crcEnd > 0 && line.length() >= crcEnd + 5) {
+                    body = line.substring(crcEnd + 1);
+                    try {
+                        if (Long.parseLong(line.substring(0, crcEnd), 16) == checksum(body)) {
+                            type = CustomerManager.EntityType.fromCode(body.charAt(2));
+                        }
+                    } catch (NumberFormatException e) {
+                        type = null;
+                    }
+                }
+                if (type == null) {
+                    torn = true;
+                    break;
+                }
+
+                replayer.apply(body.charAt(0), type, body.substring(4));
+                recordCount++;
+                validBytes += line.getBytes(StandardCharsets.UTF_8).length + 1;
+            }
+        }
+
+        if (torn) {
+            System.err.println("Journal has a damaged tail after " + recordCount + " records, truncating");
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                raf.setLength(validBytes);
+            }
+        } else if (validBytes > file.length()) {
+            // Last record made it to disk without its newline
+            openWriter().write('\n');
+            writer.flush();
+        }
+        return recordCount;
+    }
+
+    /**
+     * Empties the journal once its contents are covered by a snapshot.
+     */
+    void reset() throws IOException {
+        if (recordCount == 0 && file.length() == 0) return;
+        close();
+        new FileOutputStream(file).close();
+        recordCount = 0;
+    }
+
+    /**
+     * @return number of records written since the last reset
+     */
+    int size() {
+        return recordCount;
+    }
+
+    void close() throws IOException {
+        if (writer != null) {
+            writer.close();
+            writer = null;
+            stream = null;
+        }
+    }
+
+    private Writer openWriter() throws IOException {
+        if (writer == null) {
+            stream = new FileOutputStream(file, true);
+            writer = new BufferedWriter(new OutputStreamWriter(stream, StandardCharsets.UTF_8));
+        }
+        return writer;
+    }
+
+    private static long checksum(String body) {
+        CRC32 crc = new CRC32();
+        crc.update(body.getBytes(StandardCharsets.UTF_8));
+        return crc.getValue();
+    }
+}
@@ -0,0 +1,94 @@
+package com.example;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Writes the invoices of a snapshot to a CSV file, with customer and service names
+ * resolved from the same snapshot, so the report is consistent however long it takes.
+ * Runs as a JobService job: it reports progress and stops when cancelled.
+ */
+class InvoiceReport {
+    static final String DIRECTORY = "data/reports";
+    private static final DateTimeFormatter FILE_TIMESTAMP = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss");
+    private static final DateTimeFormatter DATE = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
+    // Rows between progress reports and cancellation checks
+    private static final int STEP = 1000;
+
+    private InvoiceReport() {
+    }
+
+    /**
+     * @return the report file
+     */
+    static Path write(CustomerManager.Snapshot snapshot, JobService.Job job) throws IOException {
+        Path directory = Paths.get(DIRECTORY);
+        Files.createDirectories(directory);
+        Path file = directory.resolve("invoices-" + LocalDateTime.now().format(FILE_TIMESTAMP) + ".csv");
+        Path tmp = directory.resolve(file.getFileName() + ".tmp");
+
+        List<CustomerManager.Invoice> invoices = snapshot.getAllInvoices();
+        invoices.sort(Comparator.comparing(CustomerManager.Invoice::getCreationDate,
+                Comparator.nullsLast(Comparator.naturalOrder())));
+        try (BufferedWriter out = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            out.write("Invoice,Customer,Created,Status,Amount,Services\n");
+            for (int i = 0; i < invoices.size(); i++) {
+                if (i % STEP == 0) {
+                    job.checkCancelled();
+                    job.updateProgress(i, invoices.size());
+                }
+                writeRow(out, snapshot, invoices.get(i));
+            }
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+        // Only complete reports appear under the final name
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return file;
+    }
+
+    private static void writeRow(BufferedWriter out, CustomerManager.Snapshot snapshot,
+                                 CustomerManager.Invoice invoice) throws IOException {
+        CustomerManager.Customer customer = invoice.getCustomerId() == null
+                ? null : snapshot.getCustomer(invoice.getCustomerId());
+        StringBuilder services = new StringBuilder();
+        for (String serviceId : invoice.getServiceIds()) {
+            CustomerManager.Service service = snapshot.getService(serviceId);
+            if (service == null) continue;
+            if (services.length() > 0) services.append("; ");
+            services.append(service.getName());
+        }
+        out.write(field(invoice.getId()));
+        out.write(',');
+        out.write(field(customer != null ? customer.getFullName() : ""));
+        out.write(',');
+        out.write(field(invoice.getCreationDate() != null ? invoice.getCreationDate().format(DATE) : ""));
+        out.write(',');
+        out.write(field(invoice.getStatus()));
+        out.write(',');
+        out.write(String.format(Locale.ROOT, "%.2f", invoice.getTotalAmount()));
+        out.write(',');
+        out.write(field(services.toString()));
+        out.write('\n');
+    }
+
+    // Quotes a value containing a comma, quote or line break, doubling its quotes
+    private static String field(String value) {
+        if (value == null) return "";
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+            return value;
+        }
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+}
@@ -21,14 +21,18 @@ import java.util.stream.Collectors;
 
 public class InvoiceViewController {
     private CustomerManager customerManager;
+    // Mutations go through here, off the FX thread
+    private final AsyncCustomerManager asyncManager;
     private BorderPane view;
     private TableView<InvoiceDisplayItem> invoiceTable;
     private ObservableList<InvoiceDisplayItem> invoiceData;
+    private Label summaryLabel;
 
     private final DateTimeFormatter dateFormatter = DateTimeFormatter.ofPattern("MM/dd/yyyy HH:mm");
 
-    public InvoiceViewController(CustomerManager customerManager) {
-        this.customerManager = customerManager;
+    public InvoiceViewController(AsyncCustomerManager asyncManager) {
+        this.asyncManager = asyncManager;
+        this.customerManager = asyncManager.getCustomerManager();
         createView();
         loadInvoices();
     }
@@ -54,6 +58,10 @@ public class InvoiceViewController {
 
         topSection.getChildren().addAll(titleLabel, createInvoiceBtn);
 
+        // Totals per status, kept current by the invoice status index
+        summaryLabel = new Label();
+        summaryLabel.setStyle("-fx-font-weight: bold;");
+
         // Create filter buttons
         HBox filterBox = new HBox(10);
         filterBox.setPadding(new Insets(0, 0, 10, 0));
@@ -65,7 +73,7 @@ public class InvoiceViewController {
         pendingInvoicesBtn.setOnAction(e -> loadPendingInvoices());
 
         TextField customerSearchField = new TextField();
-        customerSearchField.setPromptText("Search by customer name...");
+        customerSearchField.setPromptText("Customer name, email or phone...");
         customerSearchField.setPrefWidth(250);
 
         Button searchBtn = new Button("Search");
@@ -156,8 +164,8 @@ public class InvoiceViewController {
                 markPaidBtn.setOnAction(event -> {
                     InvoiceDisplayItem invoiceItem = getTableView().getItems().get(getIndex());
                     if ("PENDING".equals(invoiceItem.getStatus())) {
-                        customerManager.updateInvoiceStatus(invoiceItem.getInvoiceId(), "PAID");
-                        refreshData();
+                        asyncManager.updateInvoiceStatus(invoiceItem.getInvoiceId(), "PAID")
+                                .thenRun(InvoiceViewController.this::refreshData);
                     } else {
                         Alert alert = new Alert(Alert.AlertType.INFORMATION);
                         alert.setTitle("Status Update");
@@ -170,8 +178,8 @@ public class InvoiceViewController {
                 cancelBtn.setOnAction(event -> {
                     InvoiceDisplayItem invoiceItem = getTableView().getItems().get(getIndex());
                     if (!"PAID".equals(invoiceItem.getStatus())) {
-                        customerManager.updateInvoiceStatus(invoiceItem.getInvoiceId(), "CANCELLED");
-                        refreshData();
+                        asyncManager.updateInvoiceStatus(invoiceItem.getInvoiceId(), "CANCELLED")
+                                .thenRun(InvoiceViewController.this::refreshData);
                     } else {
                         Alert alert = new Alert(Alert.AlertType.INFORMATION);
                         alert.setTitle("Status Update");
@@ -217,20 +225,21 @@ public class InvoiceViewController {
 
         // Add components to view
         VBox vbox = new VBox(10);
-        vbox.getChildren().addAll(topSection, filterBox, invoiceTable);
+        vbox.getChildren().addAll(topSection, summaryLabel, filterBox, invoiceTable);
         VBox.setVgrow(invoiceTable, Priority.ALWAYS);
 
         view.setCenter(vbox);
     }
 
+    // Both read one snapshot, so the rows and the names in them agree even while edits go on
     private void loadInvoices() {
-        List<CustomerManager.Invoice> invoices = customerManager.getAllInvoices();
-        updateInvoiceTableData(invoices);
+        CustomerManager.Snapshot snapshot = customerManager.snapshot();
+        updateInvoiceTableData(snapshot, snapshot.getAllInvoices());
     }
 
     private void loadPendingInvoices() {
-        List<CustomerManager.Invoice> pendingInvoices = customerManager.getPendingInvoices();
-        updateInvoiceTableData(pendingInvoices);
+        CustomerManager.Snapshot snapshot = customerManager.snapshot();
+        updateInvoiceTableData(snapshot, snapshot.getInvoicesByStatus("PENDING"));
     }
 
     private void searchInvoicesByCustomer(String searchText) {
@@ -239,33 +248,46 @@ public class InvoiceViewController {
             return;
         }
 
-        String searchLower = searchText.toLowerCase();
-        List<CustomerManager.Invoice> allInvoices = customerManager.getAllInvoices();
-        List<CustomerManager.Invoice> filteredInvoices = new ArrayList<>();
-
-        for (CustomerManager.Invoice invoice : allInvoices) {
-            CustomerManager.Customer customer = customerManager.getCustomer(invoice.getCustomerId());
-            if (customer != null &&
-                    (customer.getFirstName().toLowerCase().contains(searchLower) ||
-                            customer.getLastName().toLowerCase().contains(searchLower))) {
-                filteredInvoices.add(invoice);
-            }
+        // Find the customers whose name, email or phone contains the text, as in the
+        // customer view, then pull their invoices from the index. A misspelled name finds
+        // nothing by substring, so try names within a few edits.
+        List<CustomerManager.Customer> customers = customerManager.searchCustomers(searchText.trim());
+        if (customers.isEmpty()) {
+            customers = customerManager.fuzzySearchCustomers(searchText);
+        }
+        List<String> customerIds = new ArrayList<>();
+        for (CustomerManager.Customer customer : customers) {
+            customerIds.add(customer.getId());
         }
 
-        updateInvoiceTableData(filteredInvoices);
+        // Rows and names from one snapshot, as in loadInvoices
+        CustomerManager.Snapshot snapshot = customerManager.snapshot();
+        updateInvoiceTableData(snapshot, snapshot.getInvoicesByCustomers(customerIds));
     }
 
-    private void updateInvoiceTableData(List<CustomerManager.Invoice> invoices) {
+    private void updateSummary() {
+        NumberFormat currencyFormat = NumberFormat.getCurrencyInstance();
+        summaryLabel.setText(String.format("Pending: %d (%s)    Paid: %d (%s)    Cancelled: %d (%s)",
+                customerManager.getInvoiceCount("PENDING"),
+                currencyFormat.format(customerManager.getInvoiceTotal("PENDING")),
+                customerManager.getInvoiceCount("PAID"),
+                currencyFormat.format(customerManager.getInvoiceTotal("PAID")),
+                customerManager.getInvoiceCount("CANCELLED"),
+                currencyFormat.format(customerManager.getInvoiceTotal("CANCELLED"))));
+    }
+
+    private void updateInvoiceTableData(CustomerManager.Snapshot snapshot, List<CustomerManager.Invoice> invoices) {
+        updateSummary();
         invoiceData = FXCollections.observableArrayList();
 
         for (CustomerManager.Invoice invoice : invoices) {
-            CustomerManager.Customer customer = customerManager.getCustomer(invoice.getCustomerId());
+            CustomerManager.Customer customer = snapshot.getCustomer(invoice.getCustomerId());
             String customerName = customer != null ? customer.getFullName() : "Unknown Customer";
 
             // Get service names
             StringBuilder serviceNames = new StringBuilder();
             for (String serviceId : invoice.getServiceIds()) {
-                CustomerManager.Service service = customerManager.getService(serviceId);
+                CustomerManager.Service service = snapshot.getService(serviceId);
                 if (service != null) {
                     if (serviceNames.length() > 0) {
                         serviceNames.append(", ");
@@ -308,28 +330,9 @@ public class InvoiceViewController {
 
         // Create form fields
         ComboBox<CustomerManager.Customer> customerComboBox = new ComboBox<>();
-        customerComboBox.setPromptText("Select Customer");
+        customerComboBox.setPromptText("Type a name, email or phone");
         customerComboBox.setPrefWidth(300);
-
-        ObservableList<CustomerManager.Customer> customerList =
-                FXCollections.observableArrayList(customerManager.getAllCustomers());
-        customerComboBox.setItems(customerList);
-
-        customerComboBox.setCellFactory(param -> new ListCell<CustomerManager.Customer>() {
-            @Override
-            protected void updateItem(CustomerManager.Customer customer, boolean empty) {
-                super.updateItem(customer, empty);
-                setText(empty || customer == null ? "" : customer.getFullName());
-            }
-        });
-
-        customerComboBox.setButtonCell(new ListCell<CustomerManager.Customer>() {
-            @Override
-            protected void updateItem(CustomerManager.Customer customer, boolean empty) {
-                super.updateItem(customer, empty);
-                setText(empty || customer == null ? "" : customer.getFullName());
-            }
-        });
+        CustomerPicker.install(customerComboBox, customerManager);
 
         // Service selection list view
         ListView<ServiceCheckItem> serviceListView = new ListView<>();
@@ -394,18 +397,18 @@ public class InvoiceViewController {
         Optional<InvoiceCreateRequest> result = dialog.showAndWait();
         result.ifPresent(request -> {
             // Create the invoice
-            String invoiceId = customerManager.createInvoice(request.customerId, request.serviceIds, null);
-
-            if (invoiceId != null) {
-                refreshData();
-
-                // Show success message
-                Alert alert = new Alert(Alert.AlertType.INFORMATION);
-                alert.setTitle("Success");
-                alert.setHeaderText(null);
-                alert.setContentText("Invoice created successfully!");
-                alert.showAndWait();
-            }
+            asyncManager.createInvoice(request.customerId, request.serviceIds, null).thenAccept(invoiceId -> {
+                if (invoiceId != null) {
+                    refreshData();
+
+                    // Show success message
+                    Alert alert = new Alert(Alert.AlertType.INFORMATION);
+                    alert.setTitle("Success");
+                    alert.setHeaderText(null);
+                    alert.setContentText("Invoice created successfully!");
+                    alert.showAndWait();
+                }
+            });
         });
     }
 
@@ -0,0 +1,373 @@
+package com.example;
+
+import java.util.ArrayList;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Runs background jobs (backups, reports, index rebuilds) on virtual threads, one
+ * thread per job, so any number can be queued without tying up platform threads.
+ *
+ * Jobs whose type is disk-heavy also need one of a fixed number of disk slots while
+ * they run, so a burst of them queues up instead of competing for the drive. Every job
+ * can be cancelled, reports its progress to the listeners, and records how long it
+ * waited and ran; getStats() totals those per type.
+ */
+public class JobService {
+    // Disk-heavy jobs allowed to run at once unless the constructor says otherwise
+    public static final int DEFAULT_DISK_SLOTS = 2;
+    // Finished jobs kept for getJobs(); older ones are forgotten
+    private static final int HISTORY = 100;
+
+    public enum JobType {
+        BACKUP(true),
+        REPORT(true),
+        INDEX_REBUILD(false),
+        ORPHAN_CLEANUP(false);
+
+        private final boolean diskHeavy;
+
+        JobType(boolean diskHeavy) {
+            this.diskHeavy = diskHeavy;
+        }
+
+        public boolean isDiskHeavy() {
+            return diskHeavy;
+        }
+    }
+
+    public enum JobState { QUEUED, RUNNING, SUCCEEDED, FAILED, CANCELLED }
+
+    /**
+     * The work a job does. Long-running tasks should call job.updateProgress() as they
+     * go and job.checkCancelled() between steps.
+     */
+    public interface JobTask {
+        void run(Job job) throws Exception;
+    }
+
+    private final ExecutorService executor;
+    private final Semaphore diskSlots;
+    private final AtomicLong nextId = new AtomicLong(1);
+    private final List<Consumer<Job>> listeners = new CopyOnWriteArrayList<>();
+    // Guarded by this
+    private final List<Job> active = new ArrayList<>();
+    private final Deque<Job> finished = new ArrayDeque<>();
+    private final EnumMap<JobType, TypeStats> stats = new EnumMap<>(JobType.class);
+
+    public JobService() {
+        this(DEFAULT_DISK_SLOTS);
+    }
+
+    public JobService(int diskSlots) {
+        this.executor = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("crm-job-", 1).factory());
+        this.diskSlots = new Semaphore(diskSlots, true);
+        for (JobType type : JobType.values()) {
+            stats.put(type, new TypeStats());
+        }
+    }
+
+    /**
+     * Starts a job and returns at once.
+     *
+     * @param name shown in the jobs view, e.g. "Backup" or "Invoice report"
+     */
+    public Job submit(JobType type, String name, JobTask task) {
+        Job job = new Job(nextId.getAndIncrement(), type, name);
+        synchronized (this) {
+            active.add(job);
+            stats.get(type).submitted++;
+        }
+        notifyListeners(job);
+        executor.execute(() -> run(job, task));
+        return job;
+    }
+
+    /**
+     * Called with a job whenever its state, progress or message changes, on the job's
+     * own thread. JavaFX views must hand the update to Platform.runLater.
+     */
+    public void addListener(Consumer<Job> listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Consumer<Job> listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * @return the running and queued jobs, then the most recently finished, newest first
+     */
+    public synchronized List<Job> getJobs() {
+        List<Job> jobs = new ArrayList<>(active);
+        jobs.addAll(finished);
+        return jobs;
+    }
+
+    public synchronized TypeStats getStats(JobType type) {
+        return stats.get(type).copy();
+    }
+
+    public synchronized Map<JobType, TypeStats> getStats() {
+        Map<JobType, TypeStats> result = new EnumMap<>(JobType.class);
+        for (Map.Entry<JobType, TypeStats> entry : stats.entrySet()) {
+            result.put(entry.getKey(), entry.getValue().copy());
+        }
+        return result;
+    }
+
+    /**
+     * Cancels every job and waits briefly for them to stop. Call when the application exits.
+     */
+    public void close() {
+        for (Job job : getJobs()) {
+            job.cancel();
+        }
+        executor.shutdown();
+        try {
+            executor.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run(Job job, JobTask task) {
+        job.thread = Thread.currentThread();
+        boolean holdsSlot = false;
+        try {
+            job.checkCancelled(); // Cancelled before its thread got going
+            if (job.type.diskHeavy) {
+                diskSlots.acquire();
+                holdsSlot = true;
+            }
+            job.start();
+            notifyListeners(job);
+            task.run(job);
+            job.finish(JobState.SUCCEEDED, null);
+        } catch (InterruptedException | CancellationException e) {
+            job.finish(JobState.CANCELLED, null);
+        } catch (Exception e) {
+            if (job.isCancelled()) {
+                // The task gave up because it was cancelled
+                job.finish(JobState.CANCELLED, null);
+            } else {
+                System.err.println("Job " + job + " failed: " + e.getMessage());
+                e.printStackTrace();
+                job.finish(JobState.FAILED, e);
+            }
+        } finally {
+            job.thread = null;
+            if (holdsSlot) {
+                diskSlots.release();
+            }
+            retire(job);
+            notifyListeners(job);
+        }
+    }
+
+    private synchronized void retire(Job job) {
+        active.remove(job);
+        finished.addFirst(job);
+        if (finished.size() > HISTORY) {
+            finished.removeLast();
+        }
+        stats.get(job.type).record(job);
+    }
+
+    private void notifyListeners(Job job) {
+        for (Consumer<Job> listener : listeners) {
+            try {
+                listener.accept(job);
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * One submitted job. Its getters can be called from any thread.
+     */
+    public class Job {
+        private final long id;
+        private final JobType type;
+        private final String name;
+        private final long submittedNanos = System.nanoTime();
+        // The virtual thread running the job, interrupted if it is cancelled while queued
+        private volatile Thread thread;
+        private volatile boolean cancelRequested;
+        // Guarded by this
+        private JobState state = JobState.QUEUED;
+        private long startedNanos;
+        private long finishedNanos;
+        private Throwable error;
+        private volatile double progress = -1; // Unknown until the task reports some
+        private volatile String message = "";
+
+        private Job(long id, JobType type, String name) {
+            this.id = id;
+            this.type = type;
+            this.name = name;
+        }
+
+        public long getId() { return id; }
+        public JobType getType() { return type; }
+        public String getName() { return name; }
+        public synchronized JobState getState() { return state; }
+        public synchronized Throwable getError() { return error; }
+        // From 0 to 1, or -1 while unknown
+        public double getProgress() { return progress; }
+        public String getMessage() { return message; }
+
+        public synchronized boolean isDone() {
+            return state != JobState.QUEUED && state != JobState.RUNNING;
+        }
+
+        // Time spent queued, including waiting for a disk slot
+        public synchronized long getWaitMillis() {
+            long end = startedNanos != 0 ? startedNanos : finishedNanos != 0 ? finishedNanos : System.nanoTime();
+            return (end - submittedNanos) / 1_000_000;
+        }
+
+        // Time spent running so far, or in total once finished
+        public synchronized long getRunMillis() {
+            if (startedNanos == 0) return 0;
+            long end = finishedNanos != 0 ? finishedNanos : System.nanoTime();
+            return (end - startedNanos) / 1_000_000;
+        }
+
+        /**
+         * Stops the job: a queued job never starts, and a running one stops at its next
+         * checkCancelled(). Running jobs aren't interrupted, since an interrupt would close
+         * any file channel the task is using, the journal included.
+         */
+        public void cancel() {
+            synchronized (this) {
+                if (isDone()) return;
+                cancelRequested = true;
+                if (state == JobState.QUEUED && thread != null) {
+                    thread.interrupt(); // Stop waiting for a disk slot
+                }
+            }
+        }
+
+        public boolean isCancelled() {
+            return cancelRequested;
+        }
+
+        /**
+         * Throws CancellationException if the job was cancelled; call between steps.
+         */
+        public void checkCancelled() {
+            if (isCancelled()) {
+                throw new CancellationException(name + " cancelled");
+            }
+        }
+
+        public void updateProgress(long done, long total) {
+            progress = total <= 0 ? -1 : Math.min(1.0, (double) done / total);
+            notifyListeners(this);
+        }
+
+        public void updateMessage(String message) {
+            this.message = message;
+            notifyListeners(this);
+        }
+
+        private synchronized void start() {
+            checkCancelled();
+            state = JobState.RUNNING;
+            startedNanos = System.nanoTime();
+        }
+
+        private synchronized void finish(JobState finalState, Throwable error) {
+            if (finishedNanos != 0) return;
+            state = finalState;
+            this.error = error;
+            finishedNanos = System.nanoTime();
+            if (finalState == JobState.SUCCEEDED) {
+                progress = 1;
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "#" + id + " " + name;
+        }
+    }
+
+    /**
+     * Totals for one job type. Times cover finished jobs only.
+     */
+    public static class TypeStats {
+        private int submitted;
+        private int succeeded;
+        private int failed;
+        private int cancelled;
+        private long totalRunMillis;
+        private long maxRunMillis;
+        private long totalWaitMillis;
+
+        void record(Job job) {
+            switch (job.getState()) {
+                case SUCCEEDED:
+                    succeeded++;
+                    break;
+                case FAILED:
+                    failed++;
+                    break;
+                default:
+                    cancelled++;
+                    break;
+            }
+            long runMillis = job.getRunMillis();
+            totalRunMillis += runMillis;
+            maxRunMillis = Math.max(maxRunMillis, runMillis);
+            totalWaitMillis += job.getWaitMillis();
+        }
+
+        TypeStats copy() {
+            TypeStats copy = new TypeStats();
+            copy.submitted = submitted;
+            copy.succeeded = succeeded;
+            copy.failed = failed;
+            copy.cancelled = cancelled;
+            copy.totalRunMillis = totalRunMillis;
+            copy.maxRunMillis = maxRunMillis;
+            copy.totalWaitMillis = totalWaitMillis;
+            return copy;
+        }
+
+        public int getSubmitted() { return submitted; }
+        public int getSucceeded() { return succeeded; }
+        public int getFailed() { return failed; }
+        public int getCancelled() { return cancelled; }
+        public long getMaxRunMillis() { return maxRunMillis; }
+
+        public long getAverageRunMillis() {
+            int finishedJobs = succeeded + failed + cancelled;
+            return finishedJobs == 0 ? 0 : totalRunMillis / finishedJobs;
+        }
+
+        public long getAverageWaitMillis() {
+            int finishedJobs = succeeded + failed + cancelled;
+            return finishedJobs == 0 ? 0 : totalWaitMillis / finishedJobs;
+        }
+
+        @Override
+        public String toString() {
+            return submitted + " submitted, " + succeeded + " succeeded, " + failed + " failed, "
+                    + cancelled + " cancelled, avg " + getAverageRunMillis() + " ms, max " + maxRunMillis + " ms";
+        }
+    }
+}
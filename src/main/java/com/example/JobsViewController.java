@@ -0,0 +1,204 @@
+package com.example;
+
+import javafx.application.Platform;
+import javafx.beans.property.SimpleObjectProperty;
+import javafx.beans.property.SimpleStringProperty;
+import javafx.geometry.Insets;
+import javafx.scene.control.*;
+import javafx.scene.control.cell.ProgressBarTableCell;
+import javafx.scene.layout.BorderPane;
+import javafx.scene.layout.HBox;
+import javafx.scene.layout.Priority;
+import javafx.scene.layout.VBox;
+
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Lists the background jobs with their progress and timings, and starts the
+ * maintenance jobs: backups, invoice reports, index rebuilds and orphan cleanup.
+ */
+public class JobsViewController {
+    private final CustomerManager customerManager;
+    private final JobService jobService;
+    private BorderPane view;
+    private TableView<JobService.Job> jobTable;
+    private Label statsLabel;
+    // Set while a refresh is waiting to run, so a burst of progress updates
+    // costs one refresh per frame rather than one each
+    private final AtomicBoolean refreshPending = new AtomicBoolean();
+
+    public JobsViewController(AsyncCustomerManager asyncManager, JobService jobService) {
+        this.customerManager = asyncManager.getCustomerManager();
+        this.jobService = jobService;
+        createView();
+        jobService.addListener(job -> {
+            if (refreshPending.compareAndSet(false, true)) {
+                Platform.runLater(this::refreshData);
+            }
+        });
+        refreshData();
+    }
+
+    public BorderPane getView() {
+        return view;
+    }
+
+    private void createView() {
+        view = new BorderPane();
+        view.setPadding(new Insets(10));
+
+        // Create top section with title and job buttons
+        HBox topSection = new HBox(10);
+        topSection.setPadding(new Insets(0, 0, 10, 0));
+
+        Label titleLabel = new Label("Background Jobs");
+        titleLabel.setStyle("-fx-font-size: 18px; -fx-font-weight: bold;");
+        HBox.setHgrow(titleLabel, Priority.ALWAYS);
+
+        Button backupBtn = new Button("Back Up Now");
+        backupBtn.setOnAction(e -> startBackup());
+
+        Button reportBtn = new Button("Invoice Report");
+        reportBtn.setOnAction(e -> startInvoiceReport());
+
+        Button reindexBtn = new Button("Rebuild Indexes");
+        reindexBtn.setOnAction(e -> startReindex());
+
+        Button orphansBtn = new Button("Clean Up Orphans");
+        orphansBtn.setOnAction(e -> startOrphanCleanup());
+
+        topSection.getChildren().addAll(titleLabel, backupBtn, reportBtn, reindexBtn, orphansBtn);
+
+        // Create table for jobs
+        jobTable = new TableView<>();
+        jobTable.setColumnResizePolicy(TableView.CONSTRAINED_RESIZE_POLICY);
+
+        TableColumn<JobService.Job, String> nameCol = new TableColumn<>("Job");
+        nameCol.setCellValueFactory(cellData -> new SimpleStringProperty(cellData.getValue().toString()));
+
+        TableColumn<JobService.Job, String> stateCol = new TableColumn<>("State");
+        stateCol.setCellValueFactory(cellData -> new SimpleStringProperty(cellData.getValue().getState().name()));
+
+        TableColumn<JobService.Job, Double> progressCol = new TableColumn<>("Progress");
+        progressCol.setCellValueFactory(cellData -> new SimpleObjectProperty<>(progressOf(cellData.getValue())));
+        progressCol.setCellFactory(ProgressBarTableCell.forTableColumn());
+
+        TableColumn<JobService.Job, String> waitCol = new TableColumn<>("Waited");
+        waitCol.setCellValueFactory(cellData -> new SimpleStringProperty(cellData.getValue().getWaitMillis() + " ms"));
+
+        TableColumn<JobService.Job, String> runCol = new TableColumn<>("Ran");
+        runCol.setCellValueFactory(cellData -> new SimpleStringProperty(cellData.getValue().getRunMillis() + " ms"));
+
+        TableColumn<JobService.Job, String> messageCol = new TableColumn<>("Message");
+        messageCol.setCellValueFactory(cellData -> new SimpleStringProperty(messageOf(cellData.getValue())));
+
+        TableColumn<JobService.Job, Void> actionsCol = new TableColumn<>("Actions");
+        actionsCol.setCellFactory(param -> new TableCell<JobService.Job, Void>() {
+            private final Button cancelBtn = new Button("Cancel");
+
+            {
+                cancelBtn.setOnAction(event -> {
+                    JobService.Job job = getTableView().getItems().get(getIndex());
+                    job.cancel();
+                });
+            }
+
+            @Override
+            protected void updateItem(Void item, boolean empty) {
+                super.updateItem(item, empty);
+                boolean done = empty || getTableView().getItems().get(getIndex()).isDone();
+                setGraphic(done ? null : cancelBtn);
+            }
+        });
+
+        jobTable.getColumns().addAll(nameCol, stateCol, progressCol, waitCol, runCol, messageCol, actionsCol);
+
+        statsLabel = new Label();
+
+        // Add components to view
+        VBox centerContent = new VBox(10);
+        centerContent.getChildren().addAll(jobTable, statsLabel);
+        VBox.setVgrow(jobTable, Priority.ALWAYS);
+
+        view.setTop(topSection);
+        view.setCenter(centerContent);
+    }
+
+    public void refreshData() {
+        refreshPending.set(false);
+        jobTable.getItems().setAll(jobService.getJobs());
+        jobTable.refresh();
+
+        StringBuilder stats = new StringBuilder();
+        for (Map.Entry<JobService.JobType, JobService.TypeStats> entry : jobService.getStats().entrySet()) {
+            if (entry.getValue().getSubmitted() == 0) continue;
+            if (stats.length() > 0) stats.append('\n');
+            stats.append(entry.getKey()).append(": ").append(entry.getValue());
+        }
+        statsLabel.setText(stats.toString());
+    }
+
+    private void startBackup() {
+        jobService.submit(JobService.JobType.BACKUP, "Backup", job -> {
+            BackupManager.Generation generation = customerManager.createBackup();
+            if (generation == null) {
+                throw new IllegalStateException("Backup failed; see the log");
+            }
+            job.updateMessage(generation.toString());
+        });
+    }
+
+    private void startInvoiceReport() {
+        // Taken now, so the report shows the invoices as they were when it was asked for
+        CustomerManager.Snapshot snapshot = customerManager.snapshot();
+        jobService.submit(JobService.JobType.REPORT, "Invoice report", job -> {
+            Path file = InvoiceReport.write(snapshot, job);
+            job.updateMessage("Saved " + file);
+        });
+    }
+
+    private void startReindex() {
+        jobService.submit(JobService.JobType.INDEX_REBUILD, "Rebuild indexes", job -> {
+            customerManager.reindex();
+            job.updateMessage("Indexes rebuilt");
+        });
+    }
+
+    // Cleanup can delete records, so it asks first and says how many records it would touch
+    private void startOrphanCleanup() {
+        int orphans = customerManager.countOrphans();
+        if (orphans == 0) {
+            Alert alert = new Alert(Alert.AlertType.INFORMATION);
+            alert.setTitle("Clean Up Orphans");
+            alert.setHeaderText(null);
+            alert.setContentText("No records refer to deleted records.");
+            alert.showAndWait();
+            return;
+        }
+        Alert alert = new Alert(Alert.AlertType.CONFIRMATION);
+        alert.setTitle("Clean Up Orphans");
+        alert.setHeaderText(orphans + " records refer to deleted records");
+        alert.setContentText("Each is fixed by the delete policy of what it refers to, which may delete it. "
+                + "Paid invoices are kept and only unlinked. Continue?");
+        Optional<ButtonType> result = alert.showAndWait();
+        if (result.isEmpty() || result.get() != ButtonType.OK) return;
+        jobService.submit(JobService.JobType.ORPHAN_CLEANUP, "Clean up orphans", job -> {
+            int fixed = customerManager.cleanUpOrphans();
+            job.updateMessage("Fixed " + fixed + " records");
+        });
+    }
+
+    // Running jobs that haven't reported a count show an indeterminate bar; others a real one
+    private static double progressOf(JobService.Job job) {
+        if (job.getState() == JobService.JobState.RUNNING) return job.getProgress();
+        return Math.max(0, job.getProgress());
+    }
+
+    private static String messageOf(JobService.Job job) {
+        Throwable error = job.getError();
+        return error != null ? "Failed: " + error.getMessage() : job.getMessage();
+    }
+}
@@ -0,0 +1,111 @@
+package com.example;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Parses the lines of a text snapshot on the fork-join pool. Large files are split
+ * into chunks at newline boundaries and each chunk is parsed by its own task;
+ * the results are joined back together in file order.
+ */
+class ParallelLoader {
+    /**
+     * Builds one record from the fields of a line, or returns null if the line is malformed
+     */
+    interface LineParser<T> {
+        T parse(RecordTokenizer fields);
+    }
+
+    // Characters per leaf task; smaller files are parsed on the calling thread
+    private static final int CHUNK_SIZE = 256 * 1024;
+
+    /**
+     * Records parsed from a file, plus the number of lines that couldn't be parsed
+     */
+    static class Result<T> {
+        final List<T> records;
+        final int skipped;
+
+        Result(List<T> records, int skipped) {
+            this.records = records;
+            this.skipped = skipped;
+        }
+    }
+
+    private ParallelLoader() {}
+
+    /**
+     * Parses every line of contents with the given parser. A line the parser
+     * rejects (returns null or throws) is counted as skipped.
+     */
+    static <T> Result<T> parse(String contents, LineParser<T> parser) {
+        return new ParseTask<>(contents, 0, contents.length(), parser).invoke();
+    }
+
+    // Serializable only because ForkJoinTask is; it is never serialized
+    @SuppressWarnings("serial")
+    private static class ParseTask<T> extends RecursiveTask<Result<T>> {
+        private final String contents;
+        private final int start;
+        private final int end;
+        private final LineParser<T> parser;
+
+        ParseTask(String contents, int start, int end, LineParser<T> parser) {
+            this.contents = contents;
+            this.start = start;
+            this.end = end;
+            this.parser = parser;
+        }
+
+        @Override
+        protected Result<T> compute() {
+            if (end - start > CHUNK_SIZE) {
+                // Split just after the newline nearest the middle
+                int split = contents.indexOf('\n', start + (end - start) / 2);
+                if (split >= 0 && split + 1 < end) {
+                    ParseTask<T> left = new ParseTask<>(contents, start, split + 1, parser);
+                    ParseTask<T> right = new ParseTask<>(contents, split + 1, end, parser);
+                    left.fork();
+                    Result<T> rightResult = right.compute();
+                    Result<T> leftResult = left.join();
+
+                    List<T> records = new ArrayList<>(leftResult.records.size() + rightResult.records.size());
+                    records.addAll(leftResult.records);
+                    records.addAll(rightResult.records);
+                    return new Result<>(records, leftResult.skipped + rightResult.skipped);
+                }
+            }
+            return parseRange();
+        }
+
+        private Result<T> parseRange() {
+            RecordTokenizer fields = new RecordTokenizer();
+            List<T> records = new ArrayList<>();
+            int skipped = 0;
+            int lineStart = start;
+            while (lineStart < end) {
+                int lineEnd = contents.indexOf('\n', lineStart);
+                if (lineEnd < 0 || lineEnd > end) lineEnd = end;
+                int next = lineEnd + 1;
+                if (lineEnd > lineStart && contents.charAt(lineEnd - 1) == '\r') lineEnd--;
+
+                if (lineEnd > lineStart) {
+                    T record = null;
+                    try {
+                        record = parser.parse(fields.reset(contents, lineStart, lineEnd));
+                    } catch (RuntimeException e) {
+                        // Malformed field, e.g. a bad date; count it below
+                    }
+                    if (record != null) {
+                        records.add(record);
+                    } else {
+                        skipped++;
+                    }
+                }
+                lineStart = next;
+            }
+            return new Result<>(records, skipped);
+        }
+    }
+}
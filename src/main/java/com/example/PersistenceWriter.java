@@ -0,0 +1,199 @@
+package com.example;
+
+/**
+ * Background thread that coalesces bursts of CustomerManager mutations into a
+ * single flush (group commit). Mutations call submit() and return straight away;
+ * the writer waits up to the flush window for more changes, then runs the flush
+ * task once for all of them.
+ */
+class PersistenceWriter {
+    /**
+     * Writes everything submitted so far. Returns false if the write failed.
+     */
+    interface FlushTask {
+        boolean flush();
+    }
+
+    // Wait before retrying after a failed flush, doubling with each failure in a row up to the cap,
+    // so a full or read-only disk isn't retried (and logged) dozens of times a second
+    private static final long INITIAL_RETRY_DELAY_MILLIS = 100;
+    private static final long MAX_RETRY_DELAY_MILLIS = 30_000;
+
+    private final FlushTask task;
+    private final Thread thread;
+    private volatile long windowMillis;
+
+    // All guarded by this
+    private long submitted;
+    private long attempted;
+    private long durable;
+    private boolean lastFlushOk = true;
+    private int consecutiveFailures;
+    private long flushesStarted;
+    private long flushesFinished;
+    private boolean urgent;
+    private boolean running = true;
+
+    PersistenceWriter(FlushTask task, long windowMillis) {
+        this.task = task;
+        this.windowMillis = windowMillis;
+        this.thread = new Thread(this::run, "crm-persistence");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    void setWindowMillis(long windowMillis) {
+        this.windowMillis = windowMillis;
+    }
+
+    long getWindowMillis() {
+        return windowMillis;
+    }
+
+    /**
+     * Registers a change that needs to be written.
+     *
+     * @return a sequence number that can be passed to awaitDurable()
+     */
+    synchronized long submit() {
+        submitted++;
+        notifyAll();
+        return submitted;
+    }
+
+    synchronized long lastSubmitted() {
+        return submitted;
+    }
+
+    /**
+     * @return false if the most recent flush failed; the writer keeps retrying, further
+     *         apart each time, until one succeeds
+     */
+    synchronized boolean isLastFlushOk() {
+        return lastFlushOk;
+    }
+
+    /**
+     * Writes pending changes now instead of waiting for the window (or a retry delay) to
+     * close, and waits until they are on disk.
+     *
+     * @return false if that write failed
+     */
+    boolean flush() {
+        synchronized (this) {
+            long target = submitted;
+            // The next flush to start covers target; one that failed before this call doesn't count
+            long covering = flushesStarted + 1;
+            urgent = true;
+            notifyAll();
+            try {
+                while (durable < target) {
+                    if (flushesFinished >= covering) return false;
+                    if (!running && !thread.isAlive()) return false;
+                    wait(1000);
+                }
+                return true;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Waits until every change up to the given sequence number has been written.
+     *
+     * @return false if the flush covering it failed, the wait timed out or was interrupted
+     */
+    synchronized boolean awaitDurable(long sequence, long timeoutMillis) {
+        long deadline = timeoutMillis == Long.MAX_VALUE ? Long.MAX_VALUE
+                : System.currentTimeMillis() + timeoutMillis;
+        try {
+            while (durable < sequence) {
+                if (attempted >= sequence && !lastFlushOk) return false;
+                if (!running && !thread.isAlive()) return false;
+
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) return false;
+                wait(Math.min(remaining, 1000));
+            }
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Writes anything still pending and stops the thread.
+     */
+    void close() {
+        synchronized (this) {
+            running = false;
+            urgent = true;
+            notifyAll();
+        }
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        while (true) {
+            long target;
+            synchronized (this) {
+                try {
+                    while (running && durable >= submitted) {
+                        wait();
+                    }
+                    if (durable >= submitted) return;
+
+                    // Give the burst a chance to finish so it goes out as one write, or
+                    // back off after a failure; flush() and close() still cut either short
+                    long deadline = System.currentTimeMillis()
+                            + (consecutiveFailures == 0 ? windowMillis : retryDelayMillis());
+                    long remaining;
+                    while (!urgent && (remaining = deadline - System.currentTimeMillis()) > 0) {
+                        wait(remaining);
+                    }
+                } catch (InterruptedException e) {
+                    running = false;
+                }
+                urgent = false;
+                target = submitted;
+                flushesStarted++;
+            }
+
+            boolean ok = task.flush();
+
+            synchronized (this) {
+                attempted = target;
+                flushesFinished++;
+                lastFlushOk = ok;
+                if (ok) {
+                    durable = Math.max(durable, target);
+                    if (consecutiveFailures > 0) {
+                        System.err.println("Saving works again after " + consecutiveFailures + " failed attempts");
+                    }
+                    consecutiveFailures = 0;
+                } else {
+                    consecutiveFailures++;
+                    if (running) {
+                        System.err.println("Saving failed " + consecutiveFailures + " time(s) in a row; retrying in "
+                                + retryDelayMillis() + " ms");
+                    }
+                }
+                notifyAll();
+                if (!ok && !running) return;
+            }
+        }
+    }
+
+    // Guarded by this
+    private long retryDelayMillis() {
+        int doublings = Math.min(consecutiveFailures - 1, 20);
+        return Math.min(MAX_RETRY_DELAY_MILLIS, INITIAL_RETRY_DELAY_MILLIS << doublings);
+    }
+}
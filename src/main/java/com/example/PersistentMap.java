@@ -0,0 +1,288 @@
+package com.example;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BiConsumer;
+
+/**
+ * Immutable map from string keys to values, stored as a hash array mapped trie.
+ *
+ * plus and minus return a new map and leave this one untouched. They copy only the
+ * path from the root to the changed entry (at most seven nodes of up to 32 slots) and
+ * share everything else with the old map, so keeping many versions around is cheap and
+ * any version can be read from any thread without locking.
+ */
+class PersistentMap<V> {
+    private static final int BITS = 5;
+    private static final int MASK = (1 << BITS) - 1;
+    private static final PersistentMap<Object> EMPTY = new PersistentMap<>(null, 0);
+
+    private static final class Entry {
+        final String key;
+        final int hash;
+        final Object value;
+
+        Entry(String key, int hash, Object value) {
+            this.key = key;
+            this.hash = hash;
+            this.value = value;
+        }
+    }
+
+    // Interior node: one slot per hash fragment present, each an Entry or a child node
+    private static final class BitmapNode {
+        final int bitmap;
+        final Object[] slots;
+
+        BitmapNode(int bitmap, Object[] slots) {
+            this.bitmap = bitmap;
+            this.slots = slots;
+        }
+    }
+
+    // Keys whose hashes are equal in all 32 bits
+    private static final class CollisionNode {
+        final int hash;
+        final Entry[] entries;
+
+        CollisionNode(int hash, Entry[] entries) {
+            this.hash = hash;
+            this.entries = entries;
+        }
+    }
+
+    private final BitmapNode root; // null when empty
+    private final int size;
+
+    private PersistentMap(BitmapNode root, int size) {
+        this.root = root;
+        this.size = size;
+    }
+
+    @SuppressWarnings("unchecked")
+    static <V> PersistentMap<V> empty() {
+        return (PersistentMap<V>) EMPTY;
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    V get(String key) {
+        int hash = hash(key);
+        Object node = root;
+        int shift = 0;
+        while (node != null) {
+            if (node instanceof BitmapNode) {
+                BitmapNode bitmapNode = (BitmapNode) node;
+                int bit = bit(hash, shift);
+                if ((bitmapNode.bitmap & bit) == 0) return null;
+                node = bitmapNode.slots[index(bitmapNode.bitmap, bit)];
+                shift += BITS;
+            } else if (node instanceof Entry) {
+                Entry entry = (Entry) node;
+                return entry.hash == hash && entry.key.equals(key) ? (V) entry.value : null;
+            } else {
+                for (Entry entry : ((CollisionNode) node).entries) {
+                    if (entry.key.equals(key)) return (V) entry.value;
+                }
+                return null;
+            }
+        }
+        return null;
+    }
+
+    boolean containsKey(String key) {
+        return get(key) != null;
+    }
+
+    /**
+     * @return a map with key mapped to value (which must not be null)
+     */
+    PersistentMap<V> plus(String key, V value) {
+        Entry entry = new Entry(key, hash(key), value);
+        if (root == null) {
+            return new PersistentMap<>(new BitmapNode(bit(entry.hash, 0), new Object[]{entry}), 1);
+        }
+        boolean[] added = new boolean[1];
+        BitmapNode newRoot = (BitmapNode) put(root, entry, 0, added);
+        if (newRoot == root) return this;
+        return new PersistentMap<>(newRoot, added[0] ? size + 1 : size);
+    }
+
+    /**
+     * @return a map without key; this map if it had no such key
+     */
+    PersistentMap<V> minus(String key) {
+        if (root == null) return this;
+        Object newRoot = remove(root, key, hash(key), 0);
+        if (newRoot == root) return this;
+        if (newRoot == null) return empty();
+        if (newRoot instanceof Entry) {
+            // The root never collapses into a single entry; keep it as a node
+            Entry entry = (Entry) newRoot;
+            newRoot = new BitmapNode(bit(entry.hash, 0), new Object[]{entry});
+        }
+        return new PersistentMap<>((BitmapNode) newRoot, size - 1);
+    }
+
+    @SuppressWarnings("unchecked")
+    void forEach(BiConsumer<String, V> action) {
+        forEach(root, (BiConsumer<String, Object>) action);
+    }
+
+    List<V> values() {
+        List<V> result = new ArrayList<>(size);
+        forEach((key, value) -> result.add(value));
+        return result;
+    }
+
+    private static Object put(Object node, Entry entry, int shift, boolean[] added) {
+        if (node instanceof CollisionNode) {
+            CollisionNode collisions = (CollisionNode) node;
+            if (collisions.hash != entry.hash) {
+                // Only shares a prefix with the new key; push it down a level
+                BitmapNode wrapper = new BitmapNode(bit(collisions.hash, shift), new Object[]{collisions});
+                return put(wrapper, entry, shift, added);
+            }
+            Entry[] entries = collisions.entries;
+            for (int i = 0; i < entries.length; i++) {
+                if (entries[i].key.equals(entry.key)) {
+                    Entry[] replaced = entries.clone();
+                    replaced[i] = entry;
+                    return new CollisionNode(entry.hash, replaced);
+                }
+            }
+            Entry[] grown = new Entry[entries.length + 1];
+            System.arraycopy(entries, 0, grown, 0, entries.length);
+            grown[entries.length] = entry;
+            added[0] = true;
+            return new CollisionNode(entry.hash, grown);
+        }
+
+        BitmapNode bitmapNode = (BitmapNode) node;
+        int bit = bit(entry.hash, shift);
+        int index = index(bitmapNode.bitmap, bit);
+        if ((bitmapNode.bitmap & bit) == 0) {
+            Object[] slots = new Object[bitmapNode.slots.length + 1];
+            System.arraycopy(bitmapNode.slots, 0, slots, 0, index);
+            slots[index] = entry;
+            System.arraycopy(bitmapNode.slots, index, slots, index + 1, bitmapNode.slots.length - index);
+            added[0] = true;
+            return new BitmapNode(bitmapNode.bitmap | bit, slots);
+        }
+
+        Object slot = bitmapNode.slots[index];
+        Object replacement;
+        if (slot instanceof Entry) {
+            Entry existing = (Entry) slot;
+            if (existing.hash == entry.hash && existing.key.equals(entry.key)) {
+                if (existing.value == entry.value) return node;
+                replacement = entry;
+            } else if (existing.hash == entry.hash) {
+                replacement = new CollisionNode(entry.hash, new Entry[]{existing, entry});
+                added[0] = true;
+            } else {
+                replacement = split(existing, entry, shift + BITS);
+                added[0] = true;
+            }
+        } else {
+            replacement = put(slot, entry, shift + BITS, added);
+            if (replacement == slot) return node;
+        }
+        Object[] slots = bitmapNode.slots.clone();
+        slots[index] = replacement;
+        return new BitmapNode(bitmapNode.bitmap, slots);
+    }
+
+    // A node holding two entries with different hashes that agree below shift
+    private static BitmapNode split(Entry a, Entry b, int shift) {
+        int bitA = bit(a.hash, shift);
+        int bitB = bit(b.hash, shift);
+        if (bitA == bitB) {
+            return new BitmapNode(bitA, new Object[]{split(a, b, shift + BITS)});
+        }
+        Object[] slots = Integer.compareUnsigned(bitA, bitB) < 0 ? new Object[]{a, b} : new Object[]{b, a};
+        return new BitmapNode(bitA | bitB, slots);
+    }
+
+    // Returns the node without key: the same node if absent, null if nothing is left,
+    // or a lone Entry for the parent to hold inline
+    private static Object remove(Object node, String key, int hash, int shift) {
+        if (node instanceof CollisionNode) {
+            CollisionNode collisions = (CollisionNode) node;
+            Entry[] entries = collisions.entries;
+            for (int i = 0; i < entries.length; i++) {
+                if (entries[i].key.equals(key)) {
+                    if (entries.length == 2) return entries[1 - i];
+                    Entry[] shrunk = new Entry[entries.length - 1];
+                    System.arraycopy(entries, 0, shrunk, 0, i);
+                    System.arraycopy(entries, i + 1, shrunk, i, entries.length - i - 1);
+                    return new CollisionNode(hash, shrunk);
+                }
+            }
+            return node;
+        }
+
+        BitmapNode bitmapNode = (BitmapNode) node;
+        int bit = bit(hash, shift);
+        if ((bitmapNode.bitmap & bit) == 0) return node;
+        int index = index(bitmapNode.bitmap, bit);
+        Object slot = bitmapNode.slots[index];
+        Object replacement;
+        if (slot instanceof Entry) {
+            Entry entry = (Entry) slot;
+            if (entry.hash != hash || !entry.key.equals(key)) return node;
+            replacement = null;
+        } else {
+            replacement = remove(slot, key, hash, shift + BITS);
+            if (replacement == slot) return node;
+        }
+
+        if (replacement != null) {
+            Object[] slots = bitmapNode.slots.clone();
+            slots[index] = replacement;
+            if (slots.length == 1 && replacement instanceof Entry && shift > 0) return replacement;
+            return new BitmapNode(bitmapNode.bitmap, slots);
+        }
+        if (bitmapNode.slots.length == 1) return null;
+        Object[] slots = new Object[bitmapNode.slots.length - 1];
+        System.arraycopy(bitmapNode.slots, 0, slots, 0, index);
+        System.arraycopy(bitmapNode.slots, index + 1, slots, index, slots.length - index);
+        if (slots.length == 1 && slots[0] instanceof Entry && shift > 0) return slots[0];
+        return new BitmapNode(bitmapNode.bitmap & ~bit, slots);
+    }
+
+    private static void forEach(Object node, BiConsumer<String, Object> action) {
+        if (node instanceof BitmapNode) {
+            for (Object slot : ((BitmapNode) node).slots) {
+                forEach(slot, action);
+            }
+        } else if (node instanceof Entry) {
+            Entry entry = (Entry) node;
+            action.accept(entry.key, entry.value);
+        } else if (node instanceof CollisionNode) {
+            for (Entry entry : ((CollisionNode) node).entries) {
+                action.accept(entry.key, entry.value);
+            }
+        }
+    }
+
+    private static int hash(String key) {
+        int h = key.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    private static int bit(int hash, int shift) {
+        return 1 << ((hash >>> shift) & MASK);
+    }
+
+    private static int index(int bitmap, int bit) {
+        return Integer.bitCount(bitmap & (bit - 1));
+    }
+}
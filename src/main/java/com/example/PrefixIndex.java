@@ -0,0 +1,73 @@
+package com.example;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Sorted completion index: every record is filed under a few lowercased terms, and a
+ * prefix lookup walks the terms starting with the prefix in alphabetical order, so
+ * finding the first k matches costs O(log n + k) however many records match.
+ * Not thread-safe; CustomerManager guards it with its own lock.
+ */
+class PrefixIndex {
+    // Separates the term from the id inside an entry; sorts before every other character
+    private static final char SEPARATOR = '\u0000';
+
+    private final NavigableSet<String> entries = new TreeSet<>();
+    // The entries each record is filed under, so they can be removed without the old terms
+    private final Map<String, List<String>> entriesById = new HashMap<>();
+
+    /**
+     * Files the record under the given terms, replacing the terms it had before.
+     * Null and empty terms are skipped.
+     */
+    void put(String id, String... terms) {
+        remove(id);
+        List<String> filed = new ArrayList<>(terms.length);
+        for (String term : terms) {
+            if (term == null || term.isEmpty()) continue;
+            String entry = normalize(term) + SEPARATOR + id;
+            if (entries.add(entry)) {
+                filed.add(entry);
+            }
+        }
+        entriesById.put(id, filed);
+    }
+
+    void remove(String id) {
+        List<String> filed = entriesById.remove(id);
+        if (filed != null) {
+            entries.removeAll(filed);
+        }
+    }
+
+    void clear() {
+        entries.clear();
+        entriesById.clear();
+    }
+
+    /**
+     * @return the ids of up to limit records with a term starting with prefix, ordered by
+     *         their first matching term
+     */
+    List<String> complete(String prefix, int limit) {
+        Set<String> ids = new LinkedHashSet<>();
+        if (limit <= 0) return new ArrayList<>(ids);
+        String from = normalize(prefix);
+        for (String entry : entries.tailSet(from, true)) {
+            if (!entry.startsWith(from) || ids.size() >= limit) break;
+            ids.add(entry.substring(entry.lastIndexOf(SEPARATOR) + 1));
+        }
+        return new ArrayList<>(ids);
+    }
+
+    private static String normalize(String term) {
+        return term.trim().toLowerCase().replace(SEPARATOR, ' ');
+    }
+}
@@ -0,0 +1,190 @@
+package com.example;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Streaming tokenizer for the pipe-delimited record format.
+ *
+ * Reads fields straight out of a CharSequence range (a whole file or a single journal
+ * payload), so loading needs no per-line substring, regex or String[]. It understands
+ * the escapes written by escape(): "\|" is a pipe inside a field, "\n" a newline and
+ * "\\" a backslash. Any other backslash is kept as it is, which is how older files
+ * stored them.
+ */
+class RecordTokenizer {
+    private CharSequence source;
+    private int position;
+    private int end;
+    private boolean done;
+    private int fieldStart;
+    private int fieldEnd;
+    private final StringBuilder scratch = new StringBuilder();
+
+    /**
+     * Escapes a field so it can be written into a record
+     */
+    static String escape(String field) {
+        if (field == null) return "";
+        StringBuilder sb = null;
+        for (int i = 0; i < field.length(); i++) {
+            char c = field.charAt(i);
+            String replacement = c == '\\' ? "\\\\" : c == '|' ? "\\|" : c == '\n' ? "\\n" : null;
+            if (replacement != null) {
+                if (sb == null) {
+                    sb = new StringBuilder(field.length() + 8).append(field, 0, i);
+                }
+                sb.append(replacement);
+            } else if (sb != null) {
+                sb.append(c);
+            }
+        }
+        return sb == null ? field : sb.toString();
+    }
+
+    /**
+     * Starts tokenizing the record between start (inclusive) and end (exclusive).
+     */
+    RecordTokenizer reset(CharSequence source, int start, int end) {
+        this.source = source;
+        this.position = start;
+        this.end = end;
+        this.done = false;
+        return this;
+    }
+
+    RecordTokenizer reset(CharSequence source) {
+        return reset(source, 0, source.length());
+    }
+
+    boolean hasNext() {
+        return !done;
+    }
+
+    /**
+     * Counts the fields left in the record without consuming them.
+     */
+    int fieldCount() {
+        if (done) return 0;
+        int count = 1;
+        for (int i = position; i < end; i++) {
+            char c = source.charAt(i);
+            if (c == '\\') {
+                i++;
+            } else if (c == '|') {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return the next field with escapes removed, or null if there are no more fields
+     */
+    String next() {
+        if (!advance()) return null;
+        return unescape(fieldStart, fieldEnd);
+    }
+
+    /**
+     * Skips the next field without creating a String for it.
+     */
+    void skip() {
+        advance();
+    }
+
+    /**
+     * Parses the next field as a timestamp without creating a String for it.
+     *
+     * @return the timestamp, or null if the field is missing or empty
+     */
+    LocalDateTime nextTimestamp() {
+        if (!advance() || fieldStart == fieldEnd) return null;
+        return TimestampCodec.parse(source, fieldStart, fieldEnd);
+    }
+
+    /**
+     * Reads the next field as a comma-separated list, as used for service ids.
+     * An empty field gives an empty list.
+     */
+    List<String> nextList() {
+        List<String> values = new ArrayList<>();
+        if (!advance() || fieldStart == fieldEnd) return values;
+
+        int start = fieldStart;
+        for (int i = fieldStart; i <= fieldEnd; i++) {
+            if (i == fieldEnd || source.charAt(i) == ',') {
+                values.add(substring(start, i));
+                start = i + 1;
+            }
+        }
+        return values;
+    }
+
+    // Moves past the next field and records its raw bounds
+    private boolean advance() {
+        if (done) return false;
+
+        int i = position;
+        while (i < end) {
+            char c = source.charAt(i);
+            if (c == '\\' && i + 1 < end) {
+                i += 2;
+            } else if (c == '|') {
+                break;
+            } else {
+                i++;
+            }
+        }
+
+        fieldStart = position;
+        fieldEnd = i;
+        if (i >= end) {
+            done = true;
+            position = end;
+        } else {
+            position = i + 1;
+        }
+        return true;
+    }
+
+    private String unescape(int start, int end) {
+        int backslash = -1;
+        for (int i = start; i < end; i++) {
+            if (source.charAt(i) == '\\') {
+                backslash = i;
+                break;
+            }
+        }
+        if (backslash < 0) return substring(start, end);
+
+        scratch.setLength(0);
+        scratch.append(source, start, backslash);
+        for (int i = backslash; i < end; i++) {
+            char c = source.charAt(i);
+            if (c == '\\' && i + 1 < end) {
+                char escaped = source.charAt(++i);
+                if (escaped == '|') {
+                    scratch.append('|');
+                } else if (escaped == 'n') {
+                    scratch.append('\n');
+                } else if (escaped == '\\') {
+                    scratch.append('\\');
+                } else {
+                    scratch.append('\\').append(escaped);
+                }
+            } else {
+                scratch.append(c);
+            }
+        }
+        return scratch.toString();
+    }
+
+    private String substring(int start, int end) {
+        if (source instanceof String) {
+            return ((String) source).substring(start, end);
+        }
+        return source.subSequence(start, end).toString();
+    }
+}
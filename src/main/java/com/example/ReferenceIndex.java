@@ -0,0 +1,59 @@
+package com.example;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Like SecondaryIndex, but for records that refer to several keys at once, such as an
+ * appointment listing several service ids: maps each key to the ids of the records
+ * referring to it. Not thread-safe; CustomerManager guards it with its own lock.
+ */
+class ReferenceIndex {
+    private final Map<String, Set<String>> keysById = new HashMap<>();
+    private final Map<String, Set<String>> idsByKey = new HashMap<>();
+
+    /**
+     * Files the record under each of keys, replacing the keys it had before.
+     */
+    void put(String id, Collection<String> keys) {
+        remove(id);
+        Set<String> filed = new LinkedHashSet<>();
+        for (String key : keys) {
+            if (key != null && filed.add(key)) {
+                idsByKey.computeIfAbsent(key, k -> new LinkedHashSet<>()).add(id);
+            }
+        }
+        if (!filed.isEmpty()) {
+            keysById.put(id, filed);
+        }
+    }
+
+    void remove(String id) {
+        Set<String> filed = keysById.remove(id);
+        if (filed == null) return;
+        for (String key : filed) {
+            Set<String> ids = idsByKey.get(key);
+            ids.remove(id);
+            if (ids.isEmpty()) {
+                idsByKey.remove(key);
+            }
+        }
+    }
+
+    /**
+     * @return the ids of the records referring to key, as a read-only view
+     */
+    Set<String> get(String key) {
+        Set<String> ids = idsByKey.get(key);
+        return ids == null ? Collections.emptySet() : Collections.unmodifiableSet(ids);
+    }
+
+    void clear() {
+        keysById.clear();
+        idsByKey.clear();
+    }
+}
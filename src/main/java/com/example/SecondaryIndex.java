@@ -0,0 +1,60 @@
+package com.example;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Multimap from a foreign key (such as a customer id) to the ids of the records that
+ * refer to it. The key each record is filed under is remembered too, so an update that
+ * changes the key moves the record without the caller knowing the old value.
+ * Not thread-safe; CustomerManager guards it with its own lock.
+ */
+class SecondaryIndex {
+    private final Map<String, String> keyById = new HashMap<>();
+    private final Map<String, Set<String>> idsByKey = new HashMap<>();
+
+    /**
+     * Files the record under key, moving it if it was filed under a different key.
+     */
+    void put(String id, String key) {
+        boolean known = keyById.containsKey(id);
+        String oldKey = keyById.put(id, key);
+        if (known) {
+            if (key == null ? oldKey == null : key.equals(oldKey)) return;
+            removeFromKey(oldKey, id);
+        }
+        idsByKey.computeIfAbsent(key, k -> new LinkedHashSet<>()).add(id);
+    }
+
+    void remove(String id) {
+        if (keyById.containsKey(id)) {
+            removeFromKey(keyById.remove(id), id);
+        }
+    }
+
+    /**
+     * @return the ids filed under key, as a read-only view
+     */
+    Set<String> get(String key) {
+        Set<String> ids = idsByKey.get(key);
+        return ids == null ? Collections.emptySet() : Collections.unmodifiableSet(ids);
+    }
+
+    void clear() {
+        keyById.clear();
+        idsByKey.clear();
+    }
+
+    private void removeFromKey(String key, String id) {
+        Set<String> ids = idsByKey.get(key);
+        if (ids != null) {
+            ids.remove(id);
+            if (ids.isEmpty()) {
+                idsByKey.remove(key);
+            }
+        }
+    }
+}
@@ -15,15 +15,19 @@ import javafx.util.StringConverter;
 import java.text.NumberFormat;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 
 public class ServiceViewController {
     private CustomerManager customerManager;
+    // Mutations go through here, off the FX thread
+    private final AsyncCustomerManager asyncManager;
     private BorderPane view;
     private TableView<CustomerManager.Service> serviceTable;
     private ObservableList<CustomerManager.Service> serviceData;
 
-    public ServiceViewController(CustomerManager customerManager) {
-        this.customerManager = customerManager;
+    public ServiceViewController(AsyncCustomerManager asyncManager) {
+        this.asyncManager = asyncManager;
+        this.customerManager = asyncManager.getCustomerManager();
         createView();
         loadServices();
     }
@@ -208,8 +212,19 @@ public class ServiceViewController {
         // Convert the result to a Service when the save button is clicked
         dialog.setResultConverter(dialogButton -> {
             if (dialogButton == saveButtonType) {
+                // Check the code before touching the service, so a rejected edit leaves it as it was
+                CustomerManager.Service sameCode = customerManager.getServiceByCode(codeField.getText());
+                if (sameCode != null && (isNewService || !sameCode.getId().equals(service.getId()))) {
+                    Alert alert = new Alert(Alert.AlertType.ERROR);
+                    alert.setTitle("Invalid Input");
+                    alert.setHeaderText("Service code already in use");
+                    alert.setContentText("The code " + codeField.getText().trim() + " belongs to " + sameCode.getName() + ".");
+                    alert.showAndWait();
+                    return null;
+                }
                 try {
-                    CustomerManager.Service result = isNewService ? new CustomerManager.Service() : service;
+                    // Edits go to a copy, saved only if nobody else saved the service meanwhile
+                    CustomerManager.Service result = isNewService ? new CustomerManager.Service() : service.copy();
                     result.setCode(codeField.getText());
                     result.setName(nameField.getText());
                     result.setDescription(descriptionField.getText());
@@ -230,12 +245,20 @@ public class ServiceViewController {
         // Process the result
         Optional<CustomerManager.Service> result = dialog.showAndWait();
         result.ifPresent(serviceResult -> {
-            if (isNewService) {
-                customerManager.addService(serviceResult);
-            } else {
-                customerManager.updateService(serviceResult);
-            }
-            loadServices();
+            CompletableFuture<?> saving = isNewService
+                    ? asyncManager.addService(serviceResult)
+                    : asyncManager.compareAndSetService(serviceResult);
+            saving.whenComplete((saved, error) -> {
+                if (AsyncCustomerManager.isStaleVersion(error)) {
+                    Alert alert = new Alert(Alert.AlertType.WARNING);
+                    alert.setTitle("Service Changed");
+                    alert.setHeaderText(null);
+                    alert.setContentText("This service was changed by someone else while you were editing, "
+                            + "so your changes weren't saved. Open it again to see the latest details.");
+                    alert.showAndWait();
+                }
+                loadServices();
+            });
         });
     }
 
@@ -247,8 +270,16 @@ public class ServiceViewController {
 
         Optional<ButtonType> result = confirmDialog.showAndWait();
         if (result.isPresent() && result.get() == ButtonType.OK) {
-            customerManager.deleteService(service.getId());
-            loadServices();
+            asyncManager.deleteService(service.getId()).thenAccept(deleted -> {
+                if (!deleted) {
+                    Alert alert = new Alert(Alert.AlertType.ERROR);
+                    alert.setTitle("Delete Failed");
+                    alert.setHeaderText(null);
+                    alert.setContentText("This service is used by appointments or invoices, so it can't be deleted.");
+                    alert.showAndWait();
+                }
+                loadServices();
+            });
         }
     }
 
@@ -0,0 +1,254 @@
+package com.example;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Crash-safe reading and writing of the snapshot data files.
+ *
+ * A snapshot is written to "name.tmp" through a FileChannel, ends with a footer line
+ * "#END|lines|crc", is forced to disk and is then atomically renamed over the live file.
+ * The generation it replaces is kept as "name.prev". When loading, the newest generation
+ * whose footer checks out is used, so a crash part way through a save can never leave
+ * a half-written file behind.
+ */
+class SnapshotFiles {
+    private static final String FOOTER_PREFIX = "#END|";
+    private static final int BUFFER_SIZE = 256 * 1024;
+
+    private SnapshotFiles() {}
+
+    /**
+     * Atomically replaces the file at target with the given contents.
+     *
+     * @return the number of bytes written
+     */
+    static long write(Path target, CharSequence contents) throws IOException {
+        Path tmp = sibling(target, ".tmp");
+        CRC32 crc = new CRC32();
+        long bytes = 0;
+        int lines = 0;
+        for (int i = 0; i < contents.length(); i++) {
+            if (contents.charAt(i) == '\n') lines++;
+        }
+
+        try (FileChannel channel = openForWrite(tmp)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+            CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder();
+            CharBuffer chars = CharBuffer.wrap(contents);
+            while (true) {
+                CoderResult result = encoder.encode(chars, buffer, true);
+                if (result.isError()) result.throwException();
+                if (result.isUnderflow()) {
+                    encoder.flush(buffer);
+                    bytes += drain(channel, buffer, crc);
+                    break;
+                }
+                bytes += drain(channel, buffer, crc);
+            }
+
+            String footer = FOOTER_PREFIX + lines + "|" + Long.toHexString(crc.getValue()) + "\n";
+            bytes += channel.write(ByteBuffer.wrap(footer.getBytes(StandardCharsets.UTF_8)));
+            channel.force(true);
+        }
+
+        install(tmp, target);
+        return bytes;
+    }
+
+    /**
+     * Atomically replaces the file at target with the given bytes. The format is
+     * expected to carry its own checksum.
+     *
+     * @return the number of bytes written
+     */
+    static long writeBytes(Path target, ByteBuffer data) throws IOException {
+        Path tmp = sibling(target, ".tmp");
+        long bytes = 0;
+        try (FileChannel channel = openForWrite(tmp)) {
+            while (data.hasRemaining()) {
+                bytes += channel.write(data);
+            }
+            channel.force(true);
+        }
+        install(tmp, target);
+        return bytes;
+    }
+
+    /**
+     * @return every generation of a snapshot file, newest first: an unrenamed temp file,
+     * the live file and the previous generation
+     */
+    static List<Path> generations(Path target) {
+        return Arrays.asList(sibling(target, ".tmp"), target, sibling(target, ".prev"));
+    }
+
+    static boolean exists(Path target) {
+        for (Path generation : generations(target)) {
+            if (Files.exists(generation)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Removes every generation of a snapshot file
+     */
+    static void delete(Path target) throws IOException {
+        for (Path generation : generations(target)) {
+            Files.deleteIfExists(generation);
+        }
+    }
+
+    // Keeps the generation being replaced as .prev, then swaps the new one in
+    private static void install(Path tmp, Path target) throws IOException {
+        if (Files.exists(target)) {
+            Path prev = sibling(target, ".prev");
+            Files.deleteIfExists(prev);
+            try {
+                Files.createLink(prev, target);
+            } catch (IOException | UnsupportedOperationException e) {
+                Files.copy(target, prev);
+            }
+        }
+        moveIntoPlace(tmp, target);
+    }
+
+    /**
+     * Reads the newest complete generation of a snapshot file: a finished temp file
+     * that never got renamed, then the live file, then the previous generation.
+     * Files written before snapshots had a footer are accepted as they are.
+     *
+     * @return the file contents without the footer, or null if no generation exists
+     * @throws IOException also if the file exists but no generation of it is intact, so
+     *         callers can't mistake a damaged file for one that was never written
+     */
+    static String read(Path target) throws IOException {
+        Path tmp = sibling(target, ".tmp");
+        String contents = readVerified(tmp, false);
+        if (contents != null) {
+            // The crash happened after the temp file was complete; finish the rename
+            moveIntoPlace(tmp, target);
+            return contents;
+        }
+        Files.deleteIfExists(tmp);
+
+        contents = readVerified(target, true);
+        if (contents != null) return contents;
+
+        Path prev = sibling(target, ".prev");
+        contents = readVerified(prev, true);
+        if (contents == null && (Files.exists(target) || Files.exists(prev))) {
+            throw new IOException(target + " is damaged and has no intact previous generation");
+        }
+        if (Files.exists(target)) {
+            System.err.println(target + " is damaged, loaded previous generation instead");
+        }
+        return contents;
+    }
+
+    private static String readVerified(Path file, boolean allowNoFooter) throws IOException {
+        if (!Files.exists(file)) return null;
+        byte[] data = Files.readAllBytes(file);
+
+        // Find the start of the last line
+        int end = data.length;
+        if (end > 0 && data[end - 1] == '\n') end--;
+        int footerStart = end;
+        while (footerStart > 0 && data[footerStart - 1] != '\n') footerStart--;
+
+        String lastLine = new String(data, footerStart, end - footerStart, StandardCharsets.UTF_8);
+        if (!lastLine.startsWith(FOOTER_PREFIX)) {
+            return allowNoFooter ? new String(data, StandardCharsets.UTF_8) : null;
+        }
+
+        String[] footer = lastLine.split("\\|");
+        if (footer.length != 3) return null;
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, footerStart);
+        int lines = 0;
+        for (int i = 0; i < footerStart; i++) {
+            if (data[i] == '\n') lines++;
+        }
+        try {
+            if (Long.parseLong(footer[2], 16) != crc.getValue() || Integer.parseInt(footer[1]) != lines) {
+                return null;
+            }
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        return new String(data, 0, footerStart, StandardCharsets.UTF_8);
+    }
+
+    private static long drain(FileChannel channel, ByteBuffer buffer, CRC32 crc) throws IOException {
+        buffer.flip();
+        ByteBuffer forCrc = buffer.duplicate();
+        crc.update(forCrc);
+        long written = 0;
+        while (buffer.hasRemaining()) {
+            written += channel.write(buffer);
+        }
+        buffer.clear();
+        return written;
+    }
+
+    private static FileChannel openForWrite(Path file) throws IOException {
+        try {
+            return FileChannel.open(file, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        } catch (FileSystemException e) {
+            releaseMappings();
+            return FileChannel.open(file, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        }
+    }
+
+    private static void moveIntoPlace(Path source, Path target) throws IOException {
+        try {
+            move(source, target);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        } catch (FileSystemException e) {
+            releaseMappings();
+            move(source, target);
+        }
+        syncDirectory(target.toAbsolutePath().getParent());
+    }
+
+    private static void move(Path source, Path target) throws IOException {
+        Files.move(source, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    // Windows won't replace a file that is still memory-mapped by a binary snapshot load.
+    // The mapping goes away once its buffer is collected, so give the GC a chance and retry.
+    private static void releaseMappings() {
+        System.gc();
+        try {
+            Thread.sleep(100);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Makes the rename itself durable. Not supported on every platform, so failures are ignored.
+    private static void syncDirectory(Path directory) {
+        if (directory == null) return;
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // Windows can't open a directory as a channel
+        }
+    }
+
+    private static Path sibling(Path file, String suffix) {
+        return file.resolveSibling(file.getFileName() + suffix);
+    }
+}
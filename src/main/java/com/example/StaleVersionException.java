@@ -0,0 +1,29 @@
+package com.example;
+
+/**
+ * Thrown by CustomerManager's compareAndSet methods when the record was saved by
+ * someone else since the caller read it, so saving the caller's copy would undo their
+ * change. Read the record again and redo the edit, e.g. with CustomerManager.retryOnConflict.
+ */
+public class StaleVersionException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    private final CustomerManager.EntityType type;
+    private final String id;
+    private final long expectedVersion;
+    private final long actualVersion;
+
+    public StaleVersionException(CustomerManager.EntityType type, String id, long expectedVersion, long actualVersion) {
+        super(type.name().toLowerCase() + " " + id + " is at version " + actualVersion
+                + ", not " + expectedVersion + "; it was changed by someone else");
+        this.type = type;
+        this.id = id;
+        this.expectedVersion = expectedVersion;
+        this.actualVersion = actualVersion;
+    }
+
+    public CustomerManager.EntityType getType() { return type; }
+    public String getId() { return id; }
+    public long getExpectedVersion() { return expectedVersion; }
+    public long getActualVersion() { return actualVersion; }
+}
@@ -0,0 +1,79 @@
+package com.example;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Records partitioned by status, with a running count and money total per status.
+ * Amounts are kept as whole cents so the totals don't drift as records move between
+ * partitions. Not thread-safe; CustomerManager guards it with its own lock.
+ */
+class StatusIndex<T> {
+    private static class Partition<T> {
+        final Map<String, T> records = new LinkedHashMap<>();
+        long totalCents;
+    }
+
+    // The status and amount each record was filed with, so a change can be undone exactly
+    private static class Filing {
+        final String status;
+        final long cents;
+
+        Filing(String status, long cents) {
+            this.status = status;
+            this.cents = cents;
+        }
+    }
+
+    private final Map<String, Partition<T>> partitions = new HashMap<>();
+    private final Map<String, Filing> filingById = new HashMap<>();
+
+    /**
+     * Files the record under status, moving it out of the partition it was in before.
+     */
+    void put(String id, String status, double amount, T record) {
+        remove(id);
+        long cents = Math.round(amount * 100);
+        Partition<T> partition = partitions.computeIfAbsent(status, s -> new Partition<>());
+        partition.records.put(id, record);
+        partition.totalCents += cents;
+        filingById.put(id, new Filing(status, cents));
+    }
+
+    void remove(String id) {
+        Filing filing = filingById.remove(id);
+        if (filing == null) return;
+        Partition<T> partition = partitions.get(filing.status);
+        partition.records.remove(id);
+        partition.totalCents -= filing.cents;
+        if (partition.records.isEmpty()) {
+            partitions.remove(filing.status);
+        }
+    }
+
+    void clear() {
+        partitions.clear();
+        filingById.clear();
+    }
+
+    /**
+     * @return a read-only view of the records with the given status
+     */
+    Collection<T> get(String status) {
+        Partition<T> partition = partitions.get(status);
+        return partition == null ? Collections.emptyList() : Collections.unmodifiableCollection(partition.records.values());
+    }
+
+    int count(String status) {
+        Partition<T> partition = partitions.get(status);
+        return partition == null ? 0 : partition.records.size();
+    }
+
+    long totalCents(String status) {
+        Partition<T> partition = partitions.get(status);
+        return partition == null ? 0 : partition.totalCents;
+    }
+}
@@ -0,0 +1,97 @@
+package com.example;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * Records ordered by a timestamp, for date and range queries in O(log n).
+ * Records with the same time are kept apart by id. Range queries return live views
+ * of the underlying tree rather than copies. Not thread-safe; CustomerManager guards
+ * it with its own lock.
+ */
+class TimeIndex<T> {
+    private final NavigableMap<Key, T> records = new TreeMap<>();
+    // The key each record is currently filed under, so a changed time can be moved
+    private final Map<String, Key> keyById = new HashMap<>();
+
+    private static class Key implements Comparable<Key> {
+        final LocalDateTime time;
+        final String id; // null sorts before every id, for range bounds
+
+        Key(LocalDateTime time, String id) {
+            this.time = time;
+            this.id = id;
+        }
+
+        @Override
+        public int compareTo(Key other) {
+            int result = time.compareTo(other.time);
+            if (result != 0) return result;
+            if (id == null) return other.id == null ? 0 : -1;
+            if (other.id == null) return 1;
+            return id.compareTo(other.id);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key && compareTo((Key) o) == 0;
+        }
+
+        @Override
+        public int hashCode() {
+            return time.hashCode() * 31 + (id == null ? 0 : id.hashCode());
+        }
+    }
+
+    /**
+     * Files the record under time, moving it if it was filed under a different time.
+     * A record with no time is left out of the index.
+     */
+    void put(String id, LocalDateTime time, T record) {
+        remove(id);
+        if (time == null) return;
+        Key key = new Key(time, id);
+        records.put(key, record);
+        keyById.put(id, key);
+    }
+
+    void remove(String id) {
+        Key key = keyById.remove(id);
+        if (key != null) {
+            records.remove(key);
+        }
+    }
+
+    void clear() {
+        records.clear();
+        keyById.clear();
+    }
+
+    /**
+     * @return a read-only view of the records from (inclusive) to (exclusive), in time order
+     */
+    Collection<T> between(LocalDateTime from, LocalDateTime to) {
+        if (!from.isBefore(to)) return Collections.emptyList();
+        return Collections.unmodifiableCollection(
+                records.subMap(new Key(from, null), true, new Key(to, null), false).values());
+    }
+
+    /**
+     * @return the first count records at or after from
+     */
+    List<T> next(LocalDateTime from, int count) {
+        List<T> result = new ArrayList<>(Math.min(count, 64));
+        for (T record : records.tailMap(new Key(from, null), true).values()) {
+            if (result.size() >= count) break;
+            result.add(record);
+        }
+        return result;
+    }
+}
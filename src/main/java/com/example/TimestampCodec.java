@@ -0,0 +1,89 @@
+package com.example;
+
+import java.time.DateTimeException;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * Reads and writes the "yyyy-MM-ddTHH:mm:ss" timestamps used in the data files.
+ *
+ * Every date in the files has this exact fixed-width layout, so the fields are read
+ * straight from their character offsets instead of going through DateTimeFormatter.
+ * Anything that doesn't match the layout (or isn't a valid date) falls back to the
+ * formatter, which gives the same result or error as before.
+ */
+class TimestampCodec {
+    static final DateTimeFormatter FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss");
+    static final int LENGTH = 19;
+
+    private TimestampCodec() {}
+
+    static LocalDateTime parse(CharSequence text) {
+        return parse(text, 0, text.length());
+    }
+
+    /**
+     * Parses the timestamp between start (inclusive) and end (exclusive).
+     *
+     * @throws java.time.format.DateTimeParseException if the text isn't a valid timestamp
+     */
+    static LocalDateTime parse(CharSequence text, int start, int end) {
+        if (end - start == LENGTH
+                && text.charAt(start + 4) == '-' && text.charAt(start + 7) == '-'
+                && text.charAt(start + 10) == 'T'
+                && text.charAt(start + 13) == ':' && text.charAt(start + 16) == ':') {
+            int year = digits(text, start, 4);
+            int month = digits(text, start + 5, 2);
+            int day = digits(text, start + 8, 2);
+            int hour = digits(text, start + 11, 2);
+            int minute = digits(text, start + 14, 2);
+            int second = digits(text, start + 17, 2);
+            if ((year | month | day | hour | minute | second) >= 0 && year > 0) {
+                try {
+                    return LocalDateTime.of(year, month, day, hour, minute, second);
+                } catch (DateTimeException e) {
+                    // Out of range, e.g. 31 April; let the formatter decide
+                }
+            }
+        }
+        return LocalDateTime.parse(text.subSequence(start, end), FORMATTER);
+    }
+
+    /**
+     * Appends the timestamp in file format
+     */
+    static StringBuilder append(StringBuilder sb, LocalDateTime value) {
+        int year = value.getYear();
+        if (year < 1 || year > 9999) {
+            return sb.append(value.format(FORMATTER));
+        }
+        pad(sb, year, 4).append('-');
+        pad(sb, value.getMonthValue(), 2).append('-');
+        pad(sb, value.getDayOfMonth(), 2).append('T');
+        pad(sb, value.getHour(), 2).append(':');
+        pad(sb, value.getMinute(), 2).append(':');
+        return pad(sb, value.getSecond(), 2);
+    }
+
+    static String format(LocalDateTime value) {
+        return append(new StringBuilder(LENGTH), value).toString();
+    }
+
+    // Returns -1 if any of the characters isn't a digit
+    private static int digits(CharSequence text, int start, int count) {
+        int value = 0;
+        for (int i = start; i < start + count; i++) {
+            int digit = text.charAt(i) - '0';
+            if (digit < 0 || digit > 9) return -1;
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    private static StringBuilder pad(StringBuilder sb, int value, int width) {
+        for (int limit = 10, i = 1; i < width; i++, limit *= 10) {
+            if (value < limit) sb.append('0');
+        }
+        return sb.append(value);
+    }
+}
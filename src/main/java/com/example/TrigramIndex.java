@@ -0,0 +1,399 @@
+package com.example;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Inverted trigram index for case-insensitive substring search over a few text fields.
+ *
+ * Every record gets an int ordinal, and each three-character sequence in its lowercased
+ * fields has a sorted posting list of the ordinals containing it. A query of three or
+ * more characters intersects the posting lists of its trigrams, then checks the
+ * candidates left with String.contains, so the result matches what a full scan would
+ * return. Shorter queries have no trigrams and fall back to scanning the stored text.
+ *
+ * Results are ranked: a whole-field match first, then a field prefix, then a match at
+ * the start of a word, then any other substring. Ties come in ordinal order, which is
+ * insertion order until records are removed: their ordinals are reused, so a record added
+ * later can take a removed one's place ahead of older records. Extra
+ * posting lists for whole fields and for trigrams at the start of a field or word let
+ * each rank be collected in turn, so a search with a limit stops as soon as it has
+ * enough results instead of scoring every candidate.
+ *
+ * Not thread-safe; CustomerManager guards it with its own lock.
+ */
+class TrigramIndex {
+    private static final char SEPARATOR = '\u0000';
+    private static final int EXACT = 4;
+    private static final int PREFIX = 3;
+    private static final int WORD_START = 2;
+    private static final int SUBSTRING = 1;
+    // Flags above the 48 bits of a trigram, for the positional posting lists
+    private static final long KEY_FIELD_START = 1L << 48;
+    private static final long KEY_WORD_START = 1L << 49;
+    private static final long KEY_WHOLE_FIELD = 1L << 50;
+
+    private final Map<String, Integer> ordinalById = new HashMap<>();
+    // By ordinal; null for ordinals that are free for reuse
+    private final List<String> ids = new ArrayList<>();
+    private final List<String> texts = new ArrayList<>();
+    private final List<Integer> freeOrdinals = new ArrayList<>();
+    private final PostingsTable postings = new PostingsTable();
+
+    /**
+     * Sorted, growable list of ordinals
+     */
+    private static class Postings {
+        int[] ordinals = new int[4];
+        int size;
+
+        void add(int ordinal) {
+            // New ordinals are handed out in increasing order, so this is usually an append
+            int at = size == 0 || ordinals[size - 1] < ordinal ? -size - 1 : Arrays.binarySearch(ordinals, 0, size, ordinal);
+            if (at >= 0) return;
+            at = -at - 1;
+            if (size == ordinals.length) {
+                ordinals = Arrays.copyOf(ordinals, size * 2);
+            }
+            System.arraycopy(ordinals, at, ordinals, at + 1, size - at);
+            ordinals[at] = ordinal;
+            size++;
+        }
+
+        void remove(int ordinal) {
+            int at = Arrays.binarySearch(ordinals, 0, size, ordinal);
+            if (at < 0) return;
+            System.arraycopy(ordinals, at + 1, ordinals, at, size - at - 1);
+            size--;
+        }
+
+        /**
+         * Finds the first position at or after from holding a value >= ordinal, galloping
+         * forward and then binary searching, so a sweep in ascending order is near linear.
+         */
+        int seek(int from, int ordinal) {
+            int step = 1;
+            int low = from;
+            int high = from;
+            while (high < size && ordinals[high] < ordinal) {
+                low = high + 1;
+                high += step;
+                step <<= 1;
+            }
+            if (high > size) high = size;
+            int at = Arrays.binarySearch(ordinals, low, high, ordinal);
+            return at >= 0 ? at : -at - 1;
+        }
+    }
+
+    /**
+     * Open-addressing map from key to posting list. Every record adds dozens of keys, so
+     * avoiding a boxed Long and a map entry per lookup keeps bulk indexing fast.
+     */
+    private static class PostingsTable {
+        private static final long EMPTY = -1L; // keys never use the top bits
+        long[] keys = newKeys(1024);
+        Postings[] values = new Postings[1024];
+        int size;
+
+        private static long[] newKeys(int capacity) {
+            long[] keys = new long[capacity];
+            Arrays.fill(keys, EMPTY);
+            return keys;
+        }
+
+        private int slot(long key) {
+            long hash = key * 0x9E3779B97F4A7C15L;
+            int mask = keys.length - 1;
+            int at = (int) (hash >>> 32) & mask;
+            while (keys[at] != EMPTY && keys[at] != key) {
+                at = (at + 1) & mask;
+            }
+            return at;
+        }
+
+        Postings get(long key) {
+            return values[slot(key)];
+        }
+
+        Postings getOrCreate(long key) {
+            int at = slot(key);
+            if (values[at] != null) return values[at];
+            if ((size + 1) * 2 > keys.length) {
+                resize();
+                at = slot(key);
+            }
+            keys[at] = key;
+            values[at] = new Postings();
+            size++;
+            return values[at];
+        }
+
+        void remove(long key) {
+            int at = slot(key);
+            if (values[at] == null) return;
+            keys[at] = EMPTY;
+            values[at] = null;
+            size--;
+            // Reinsert the rest of the probe run so lookups don't stop at the gap
+            int mask = keys.length - 1;
+            int next = (at + 1) & mask;
+            while (keys[next] != EMPTY) {
+                long moved = keys[next];
+                Postings value = values[next];
+                keys[next] = EMPTY;
+                values[next] = null;
+                int to = slot(moved);
+                keys[to] = moved;
+                values[to] = value;
+                next = (next + 1) & mask;
+            }
+        }
+
+        void clear() {
+            keys = newKeys(1024);
+            values = new Postings[1024];
+            size = 0;
+        }
+
+        private void resize() {
+            long[] oldKeys = keys;
+            Postings[] oldValues = values;
+            keys = newKeys(oldKeys.length * 2);
+            values = new Postings[oldKeys.length * 2];
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldValues[i] != null) {
+                    int at = slot(oldKeys[i]);
+                    keys[at] = oldKeys[i];
+                    values[at] = oldValues[i];
+                }
+            }
+        }
+    }
+
+    /**
+     * Indexes (or re-indexes) a record's fields. Null fields count as empty.
+     */
+    void put(String id, String... fields) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < fields.length; i++) {
+            if (i > 0) sb.append(SEPARATOR);
+            if (fields[i] != null) sb.append(fields[i].toLowerCase());
+        }
+        String text = sb.toString();
+
+        Integer existing = ordinalById.get(id);
+        int ordinal;
+        if (existing != null) {
+            ordinal = existing;
+            String oldText = texts.get(ordinal);
+            if (oldText.equals(text)) return;
+            removePostings(oldText, ordinal);
+            texts.set(ordinal, text);
+        } else if (!freeOrdinals.isEmpty()) {
+            ordinal = freeOrdinals.remove(freeOrdinals.size() - 1);
+            ids.set(ordinal, id);
+            texts.set(ordinal, text);
+            ordinalById.put(id, ordinal);
+        } else {
+            ordinal = ids.size();
+            ids.add(id);
+            texts.add(text);
+            ordinalById.put(id, ordinal);
+        }
+
+        for (long key : keys(text)) {
+            postings.getOrCreate(key).add(ordinal);
+        }
+    }
+
+    void remove(String id) {
+        Integer ordinal = ordinalById.remove(id);
+        if (ordinal == null) return;
+        removePostings(texts.get(ordinal), ordinal);
+        ids.set(ordinal, null);
+        texts.set(ordinal, null);
+        freeOrdinals.add(ordinal);
+    }
+
+    void clear() {
+        ordinalById.clear();
+        ids.clear();
+        texts.clear();
+        freeOrdinals.clear();
+        postings.clear();
+    }
+
+    /**
+     * Finds the records with a field containing query, ignoring case, best matches first.
+     *
+     * @return up to limit ids
+     */
+    List<String> search(String query, int limit) {
+        String q = query.toLowerCase();
+        List<String> result = new ArrayList<>();
+        if (limit <= 0) return result;
+
+        if (q.length() < 3) {
+            // No trigrams to look up; score the stored text and sort
+            List<int[]> matches = new ArrayList<>(); // {ordinal, score}
+            for (int ordinal = 0; ordinal < texts.size(); ordinal++) {
+                String text = texts.get(ordinal);
+                if (text == null) continue;
+                int score = q.isEmpty() ? SUBSTRING : score(text, q);
+                if (score > 0) matches.add(new int[]{ordinal, score});
+            }
+            matches.sort((a, b) -> a[1] != b[1] ? Integer.compare(b[1], a[1]) : Integer.compare(a[0], b[0]));
+            for (int i = 0; i < matches.size() && result.size() < limit; i++) {
+                result.add(ids.get(matches.get(i)[0]));
+            }
+            return result;
+        }
+
+        List<Postings> lists = new ArrayList<>();
+        for (long key : queryTrigrams(q)) {
+            Postings list = postings.get(key);
+            if (list == null) return result;
+            lists.add(list);
+        }
+
+        // One pass per rank, best first. Each record is only taken in the pass for its best
+        // score, so the passes never repeat a record and can stop at the limit.
+        long first = trigram(q, 0);
+        collect(q, EXACT, Collections.singletonList(postings.get(KEY_WHOLE_FIELD | wholeFieldHash(q, 0, q.length()))), result, limit);
+        collect(q, PREFIX, with(lists, postings.get(KEY_FIELD_START | first)), result, limit);
+        collect(q, WORD_START, with(lists, postings.get(KEY_WORD_START | first)), result, limit);
+        collect(q, SUBSTRING, lists, result, limit);
+        return result;
+    }
+
+    // Adds the ids of the records in every list whose best score is rank
+    private void collect(String q, int rank, List<Postings> lists, List<String> result, int limit) {
+        if (result.size() >= limit || lists == null || lists.contains(null)) return;
+
+        // Walk the shortest list, moving a cursor through each of the others
+        Postings shortest = lists.get(0);
+        for (Postings list : lists) {
+            if (list.size < shortest.size) shortest = list;
+        }
+        int[] cursors = new int[lists.size()];
+        outer:
+        for (int i = 0; i < shortest.size; i++) {
+            int ordinal = shortest.ordinals[i];
+            for (int j = 0; j < lists.size(); j++) {
+                Postings list = lists.get(j);
+                if (list == shortest) continue;
+                cursors[j] = list.seek(cursors[j], ordinal);
+                if (cursors[j] >= list.size) break outer;
+                if (list.ordinals[cursors[j]] != ordinal) continue outer;
+            }
+            if (score(texts.get(ordinal), q) == rank) {
+                result.add(ids.get(ordinal));
+                if (result.size() >= limit) return;
+            }
+        }
+    }
+
+    private static List<Postings> with(List<Postings> lists, Postings extra) {
+        if (extra == null) return null;
+        List<Postings> result = new ArrayList<>(lists.size() + 1);
+        result.add(extra);
+        result.addAll(lists);
+        return result;
+    }
+
+    private void removePostings(String text, int ordinal) {
+        for (long key : keys(text)) {
+            Postings list = postings.get(key);
+            list.remove(ordinal);
+            if (list.size == 0) postings.remove(key);
+        }
+    }
+
+    // How well the query matches the best field of text, or 0 if no field contains it
+    private static int score(String text, String q) {
+        int best = 0;
+        int fieldStart = 0;
+        while (fieldStart <= text.length()) {
+            int fieldEnd = text.indexOf(SEPARATOR, fieldStart);
+            if (fieldEnd < 0) fieldEnd = text.length();
+
+            int at = text.indexOf(q, fieldStart);
+            while (at >= 0 && at + q.length() <= fieldEnd) {
+                int score;
+                if (at == fieldStart) {
+                    score = at + q.length() == fieldEnd ? EXACT : PREFIX;
+                } else {
+                    score = Character.isLetterOrDigit(text.charAt(at - 1)) ? SUBSTRING : WORD_START;
+                }
+                if (score > best) best = score;
+                if (best == EXACT) return best;
+                at = text.indexOf(q, at + 1);
+            }
+            fieldStart = fieldEnd + 1;
+        }
+        return best;
+    }
+
+    // Every posting list a record belongs to: its trigrams, which of them start a field
+    // or a word, and its whole fields
+    private static long[] keys(String text) {
+        long[] keys = new long[text.length() * 2 + 8];
+        int count = 0;
+        int fieldStart = 0;
+        for (int i = 0; i <= text.length(); i++) {
+            if (i < text.length() && text.charAt(i) != SEPARATOR) continue;
+            // text[fieldStart, i) is one field
+            keys[count++] = KEY_WHOLE_FIELD | wholeFieldHash(text, fieldStart, i);
+            for (int at = fieldStart; at + 3 <= i; at++) {
+                long trigram = trigram(text, at);
+                keys[count++] = trigram;
+                if (at == fieldStart) {
+                    keys[count++] = KEY_FIELD_START | trigram;
+                } else if (!Character.isLetterOrDigit(text.charAt(at - 1))) {
+                    keys[count++] = KEY_WORD_START | trigram;
+                }
+            }
+            fieldStart = i + 1;
+        }
+        return distinct(keys, count);
+    }
+
+    private static long[] queryTrigrams(String q) {
+        long[] keys = new long[q.length()];
+        int count = 0;
+        for (int i = 0; i + 3 <= q.length(); i++) {
+            keys[count++] = trigram(q, i);
+        }
+        return distinct(keys, count);
+    }
+
+    // Sorts the first count keys and drops duplicates
+    private static long[] distinct(long[] keys, int count) {
+        Arrays.sort(keys, 0, count);
+        int unique = 0;
+        for (int i = 0; i < count; i++) {
+            if (unique == 0 || keys[i] != keys[unique - 1]) {
+                keys[unique++] = keys[i];
+            }
+        }
+        return Arrays.copyOf(keys, unique);
+    }
+
+    // String.hashCode() of text[start, end), without the substring
+    private static long wholeFieldHash(String text, int start, int end) {
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + text.charAt(i);
+        }
+        return hash & 0xFFFFFFFFL;
+    }
+
+    private static long trigram(CharSequence text, int start) {
+        return ((long) text.charAt(start) << 32) | ((long) text.charAt(start + 1) << 16) | text.charAt(start + 2);
+    }
+}
@@ -0,0 +1,57 @@
+package com.example;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class BackupManagerTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void restoreBringsBackWhatWasBackedUp() throws IOException {
+        Path data = Files.createDirectories(dir.resolve("data"));
+        Path customers = Files.writeString(data.resolve("customers.txt"), "c1|Ann\n");
+        Path journal = Files.writeString(data.resolve("journal.log"), "1|P|C|c2|Bob\n");
+        BackupManager backups = new BackupManager(data.resolve("backups"));
+
+        BackupManager.Generation generation = backups.backup(List.of(customers, journal, data.resolve("missing.txt")));
+        assertEquals(List.of(generation.getName()), backups.list());
+
+        Files.writeString(customers, "c1|Ann\nc3|Cal\n");
+        Files.delete(journal);
+
+        List<Path> restored = backups.restore(generation.getName(), data);
+        assertEquals(2, restored.size());
+        assertEquals("c1|Ann\n", Files.readString(customers));
+        assertEquals("1|P|C|c2|Bob\n", Files.readString(journal));
+    }
+
+    @Test
+    void damagedBackupLeavesTheFilesAlone() throws IOException {
+        Path data = Files.createDirectories(dir.resolve("data"));
+        Path customers = Files.writeString(data.resolve("customers.txt"), "c1|Ann\n");
+        BackupManager backups = new BackupManager(data.resolve("backups"));
+        BackupManager.Generation generation = backups.backup(List.of(customers));
+
+        // Same size, different bytes: only the hash check can catch it
+        Files.writeString(data.resolve("backups").resolve(generation.getName()).resolve("customers.txt"), "c1|Bnn\n");
+        Files.writeString(customers, "c1|Ann\nc3|Cal\n");
+
+        assertThrows(IOException.class, () -> backups.restore(generation.getName(), data));
+        assertEquals("c1|Ann\nc3|Cal\n", Files.readString(customers));
+        // No staged copies left behind either
+        try (Stream<Path> files = Files.list(data)) {
+            assertEquals(List.of("backups", "customers.txt"), files.map(p -> p.getFileName().toString()).sorted().toList());
+        }
+    }
+}
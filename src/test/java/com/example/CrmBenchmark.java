@@ -0,0 +1,340 @@
+package com.example;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.util.ArrayDeque;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntPredicate;
+import java.util.stream.Stream;
+
+/**
+ * Micro-benchmarks for the persistence code paths. Not part of the application, so it
+ * lives with the tests and stays out of the jar; build with mvn test-compile, then run
+ * it by hand with:
+ *
+ *   java -cp target/classes:target/test-classes com.example.CrmBenchmark [records]
+ */
+class CrmBenchmark {
+    private static final int WARMUP_ROUNDS = 3;
+    private static final int MEASURED_ROUNDS = 5;
+
+    // Keeps results reachable so the JIT can't drop the work
+    private static long sink;
+
+    public static void main(String[] args) {
+        int records = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+        String contents = customerLines(records);
+        long bytes = contents.getBytes(StandardCharsets.UTF_8).length;
+        System.out.println(records + " customer lines, " + (bytes / 1024) + " KB");
+
+        run("String.split + unescape", records, bytes, () -> splitFields(contents));
+        run("RecordTokenizer", records, bytes, () -> tokenizeFields(contents));
+
+        String[] timestamps = timestamps(records);
+        LocalDateTime[] parsed = new LocalDateTime[records];
+        long timestampBytes = (long) records * TimestampCodec.LENGTH;
+        System.out.println(records + " timestamps");
+        run("DateTimeFormatter parse", records, timestampBytes, () -> {
+            for (int i = 0; i < timestamps.length; i++) {
+                parsed[i] = LocalDateTime.parse(timestamps[i], TimestampCodec.FORMATTER);
+            }
+        });
+        run("TimestampCodec parse", records, timestampBytes, () -> {
+            for (int i = 0; i < timestamps.length; i++) {
+                parsed[i] = TimestampCodec.parse(timestamps[i]);
+            }
+        });
+        StringBuilder out = new StringBuilder(timestamps.length * (TimestampCodec.LENGTH + 1));
+        run("DateTimeFormatter format", records, timestampBytes, () -> {
+            out.setLength(0);
+            for (LocalDateTime value : parsed) {
+                out.append(value.format(TimestampCodec.FORMATTER)).append('|');
+            }
+            sink += out.length();
+        });
+        run("TimestampCodec format", records, timestampBytes, () -> {
+            out.setLength(0);
+            for (LocalDateTime value : parsed) {
+                TimestampCodec.append(out, value).append('|');
+            }
+            sink += out.length();
+        });
+
+        searchBenchmark(records);
+        fuzzyBenchmark(records);
+        contentionBenchmark(records);
+        System.out.println("(checksum " + sink + ")");
+    }
+
+    private static void searchBenchmark(int records) {
+        String[][] customers = new String[records][];
+        TrigramIndex index = new TrigramIndex();
+        long start = System.nanoTime();
+        for (int i = 0; i < records; i++) {
+            customers[i] = new String[]{"First" + i, "Last" + (i % 997), "user" + i + "@example.com",
+                    "555-" + (1000 + i % 9000)};
+            index.put("c-" + i, customers[i]);
+        }
+        System.out.printf("%d customers indexed in %d ms%n", records, (System.nanoTime() - start) / 1_000_000);
+
+        String[] queries = {"first12345", "last99", "user777@", "555-4321", "irst5"};
+        run("Scan with toLowerCase", queries.length, "queries", 0, () -> {
+            for (String query : queries) {
+                String q = query.toLowerCase();
+                for (String[] fields : customers) {
+                    for (String field : fields) {
+                        if (field.toLowerCase().contains(q)) {
+                            sink++;
+                            break;
+                        }
+                    }
+                }
+            }
+        });
+        run("TrigramIndex top 50", queries.length, "queries", 0, () -> {
+            for (String query : queries) {
+                sink += index.search(query, 50).size();
+            }
+        });
+    }
+
+    private static void fuzzyBenchmark(int records) {
+        // Names built from syllables, so they repeat and resemble each other like real ones
+        String[] syllables = {"jo", "han", "son", "mar", "tin", "ez", "li", "sa", "ber", "ger",
+                "an", "der", "ka", "ro", "el", "mi", "ch", "ton", "ra", "ly"};
+        String[][] names = new String[records][];
+        BkTree tree = new BkTree();
+        long start = System.nanoTime();
+        for (int i = 0; i < records; i++) {
+            String first = syllables[i % 20] + syllables[(i / 20) % 20];
+            String last = syllables[(i / 7) % 20] + syllables[(i / 140) % 20] + syllables[(i / 2800) % 20];
+            names[i] = new String[]{first, last};
+            tree.put("c-" + i, first, last);
+        }
+        System.out.printf("%d customers in a BK-tree in %d ms%n", records, (System.nanoTime() - start) / 1_000_000);
+
+        String[] queries = {"jonson", "martinz", "lisaa", "bergerson", "kro"};
+        run("Levenshtein scan, k=2", queries.length, "queries", 0, () -> {
+            for (String query : queries) {
+                for (String[] fields : names) {
+                    if (BkTree.distance(query, fields[0]) <= 2 || BkTree.distance(query, fields[1]) <= 2) {
+                        sink++;
+                    }
+                }
+            }
+        });
+        run("BK-tree, k=2", queries.length, "queries", 0, () -> {
+            for (String query : queries) {
+                sink += tree.search(query, 2).size();
+            }
+        });
+    }
+
+    // Readers doing point lookups on a real CustomerManager while one writer keeps adding
+    // customers with an invoice each and deleting older ones, as with several screens open
+    // and an import running. The collections grow and shrink, so their maps resize under the
+    // readers. Compared with every read taking the manager's monitor, as before the
+    // per-collection locks.
+    private static void contentionBenchmark(int records) {
+        Path dataDirectory = Paths.get("data");
+        if (Files.exists(dataDirectory)) {
+            System.out.println("Skipping the contention benchmark: it writes to ./data, which already exists;"
+                    + " run it from an empty directory");
+            return;
+        }
+        CustomerManager manager = new CustomerManager();
+        try {
+            String serviceId = manager.getAllServices().get(0).getId();
+            String[] ids = new String[records];
+            CustomerManager.Batch batch = manager.newBatch();
+            for (int i = 0; i < records; i++) {
+                ids[i] = batch.addCustomer(benchmarkCustomer(i));
+                if (i % 10 == 0) {
+                    batch.createInvoice(ids[i], List.of(serviceId), null);
+                }
+            }
+            batch.commit();
+
+            Deque<String> added = new ArrayDeque<>();
+            Runnable write = () -> {
+                String id = manager.addCustomer(benchmarkCustomer(records + added.size()));
+                manager.createInvoice(id, List.of(serviceId), null);
+                added.addLast(id);
+                if (added.size() > 1000) {
+                    manager.deleteCustomer(added.removeFirst()); // Takes its invoice with it
+                }
+            };
+            IntPredicate sharedRead = i -> (i % 8 == 0
+                    ? manager.getInvoiceCount("PENDING") : manager.getCustomer(ids[i]) != null ? 1 : 0) > 0;
+            IntPredicate monitorRead = i -> {
+                synchronized (manager) {
+                    return sharedRead.test(i);
+                }
+            };
+
+            System.out.println("Point reads on CustomerManager with a writer adding and deleting customers, "
+                    + Runtime.getRuntime().availableProcessors() + " CPUs");
+            for (int readers : new int[]{1, 2, 4, 8}) {
+                measureReads("synchronized, " + readers + " readers", readers, records, monitorRead, write);
+                measureReads("StampedLock, " + readers + " readers", readers, records, sharedRead, write);
+            }
+        } finally {
+            manager.close();
+            deleteRecursively(dataDirectory);
+        }
+    }
+
+    private static CustomerManager.Customer benchmarkCustomer(int i) {
+        CustomerManager.Customer customer = new CustomerManager.Customer();
+        customer.setFirstName("First" + i);
+        customer.setLastName("Last" + (i % 997));
+        customer.setEmail("user" + i + "@example.com");
+        customer.setPhone("555-" + (1000 + i % 9000));
+        return customer;
+    }
+
+    private static void measureReads(String name, int readers, int records, IntPredicate read, Runnable write) {
+        long millis = 500;
+        AtomicBoolean running = new AtomicBoolean(true);
+        LongAdder reads = new LongAdder();
+        LongAdder writes = new LongAdder();
+        CountDownLatch done = new CountDownLatch(readers + 1);
+        Thread writer = new Thread(() -> {
+            while (running.get()) {
+                write.run();
+                writes.increment();
+                try {
+                    Thread.sleep(1);
+                } catch (InterruptedException e) {
+                    break;
+                }
+            }
+            done.countDown();
+        });
+        writer.start();
+        for (int r = 0; r < readers; r++) {
+            int seed = r;
+            new Thread(() -> {
+                long count = 0, found = 0;
+                int i = seed;
+                while (running.get()) {
+                    for (int j = 0; j < 1000; j++) {
+                        i = (i * 31 + 7) % records;
+                        if (read.test(i)) found++;
+                    }
+                    count += 1000;
+                }
+                reads.add(count);
+                sink += found;
+                done.countDown();
+            }).start();
+        }
+        try {
+            Thread.sleep(millis);
+            running.set(false);
+            done.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        System.out.printf("%-28s %12.0f reads/s %8.0f writes/s%n", name,
+                reads.sum() * 1000.0 / millis, writes.sum() * 1000.0 / millis);
+    }
+
+    private static void deleteRecursively(Path directory) {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        } catch (IOException e) {
+            System.err.println("Could not delete " + directory + ": " + e.getMessage());
+        }
+    }
+
+    private static void run(String name, int lines, long bytes, Runnable task) {
+        run(name, lines, "lines", bytes, task);
+    }
+
+    // Prints the best of the measured rounds; MB/s is left out when bytes is 0
+    private static void run(String name, int items, String unit, long bytes, Runnable task) {
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            task.run();
+        }
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < MEASURED_ROUNDS; i++) {
+            long start = System.nanoTime();
+            task.run();
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        double seconds = best / 1e9;
+        System.out.printf("%-28s %8.1f ms %12.0f %s/s", name, best / 1e6, items / seconds, unit);
+        if (bytes > 0) {
+            System.out.printf(" %8.1f MB/s", bytes / seconds / (1024 * 1024));
+        }
+        System.out.println();
+    }
+
+    // The loader before RecordTokenizer: a substring per line, a regex split and an unescape pass
+    private static void splitFields(String contents) {
+        int lineStart = 0;
+        while (lineStart < contents.length()) {
+            int lineEnd = contents.indexOf('\n', lineStart);
+            if (lineEnd < 0) lineEnd = contents.length();
+            String[] parts = contents.substring(lineStart, lineEnd).split("\\|");
+            for (String part : parts) {
+                sink += part.replace("\\|", "|").replace("\\n", "\n").length();
+            }
+            lineStart = lineEnd + 1;
+        }
+    }
+
+    private static void tokenizeFields(String contents) {
+        RecordTokenizer fields = new RecordTokenizer();
+        int lineStart = 0;
+        while (lineStart < contents.length()) {
+            int lineEnd = contents.indexOf('\n', lineStart);
+            if (lineEnd < 0) lineEnd = contents.length();
+            fields.reset(contents, lineStart, lineEnd);
+            while (fields.hasNext()) {
+                sink += fields.next().length();
+            }
+            lineStart = lineEnd + 1;
+        }
+    }
+
+    private static String[] timestamps(int count) {
+        LocalDateTime base = LocalDateTime.of(2020, 1, 1, 8, 0);
+        String[] values = new String[count];
+        for (int i = 0; i < count; i++) {
+            values[i] = TimestampCodec.format(base.plusMinutes(i * 37L).plusSeconds(i % 60));
+        }
+        return values;
+    }
+
+    // Lines in the customers.txt format, with an escaped pipe in some addresses
+    private static String customerLines(int count) {
+        String[] makes = {"Toyota", "Honda", "Ford", "BMW", "Tesla"};
+        StringBuilder sb = new StringBuilder(count * 120);
+        for (int i = 0; i < count; i++) {
+            sb.append("c-").append(i).append('|');
+            sb.append("First").append(i).append('|');
+            sb.append("Last").append(i % 997).append('|');
+            sb.append("user").append(i).append("@example.com|");
+            sb.append("555-").append(1000 + i % 9000).append('|');
+            sb.append(RecordTokenizer.escape(i % 10 == 0 ? i + " Main St|Unit 4" : i + " Main St")).append('|');
+            sb.append(makes[i % makes.length]).append('|');
+            sb.append("Model").append('|');
+            sb.append(2000 + i % 25).append('|');
+            sb.append("Black").append('|');
+            sb.append(RecordTokenizer.escape(i % 7 == 0 ? "Prefers\nmornings" : "")).append('|');
+            sb.append("2024-03-15T10:30:00").append('\n');
+        }
+        return sb.toString();
+    }
+}
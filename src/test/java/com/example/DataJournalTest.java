@@ -0,0 +1,84 @@
+package com.example;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class DataJournalTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void replayCutsOffATornTail() throws IOException {
+        Path file = dir.resolve("journal.log");
+        DataJournal journal = new DataJournal(file.toString());
+        journal.append(put("c1|Ann"));
+        journal.append(put("c2|Bob"));
+        journal.sync();
+        journal.close();
+        long intact = Files.size(file);
+
+        // A crash partway through the third record: no newline and a checksum that can't match
+        Files.write(file, "1f2e3d|P|C|c3|Ca".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+        List<String> payloads = new ArrayList<>();
+        DataJournal reopened = new DataJournal(file.toString());
+        assertEquals(2, reopened.replay((op, type, payload) -> payloads.add(payload)));
+        assertEquals(List.of("c1|Ann", "c2|Bob"), payloads);
+        assertEquals(intact, Files.size(file));
+
+        // New records go after the intact ones, not after the torn bytes
+        reopened.append(put("c3|Cal"));
+        reopened.sync();
+        reopened.close();
+        assertEquals(List.of("c1|Ann", "c2|Bob", "c3|Cal"), replay(file));
+    }
+
+    @Test
+    void replayKeepsALastRecordWithoutItsNewline() throws IOException {
+        Path file = dir.resolve("journal.log");
+        DataJournal journal = new DataJournal(file.toString());
+        journal.append(put("c1|Ann"));
+        journal.append(new DataJournal.Record(DataJournal.DELETE, CustomerManager.EntityType.CUSTOMER, "c0"));
+        journal.sync();
+        journal.close();
+
+        // The record reached the disk but its newline didn't
+        byte[] data = Files.readAllBytes(file);
+        Files.write(file, Arrays.copyOf(data, data.length - 1));
+
+        List<String> replayed = new ArrayList<>();
+        DataJournal reopened = new DataJournal(file.toString());
+        assertEquals(2, reopened.replay((op, type, payload) -> replayed.add(op + " " + type + " " + payload)));
+        assertEquals(List.of("P CUSTOMER c1|Ann", "D CUSTOMER c0"), replayed);
+
+        // The newline is put back, so the next record starts on a line of its own
+        reopened.append(put("c2|Bob"));
+        reopened.sync();
+        reopened.close();
+        assertEquals(List.of("c1|Ann", "c0", "c2|Bob"), replay(file));
+    }
+
+    private static DataJournal.Record put(String payload) {
+        return new DataJournal.Record(DataJournal.PUT, CustomerManager.EntityType.CUSTOMER, payload);
+    }
+
+    private static List<String> replay(Path file) throws IOException {
+        List<String> payloads = new ArrayList<>();
+        DataJournal journal = new DataJournal(file.toString());
+        journal.replay((op, type, payload) -> payloads.add(payload));
+        journal.close();
+        return payloads;
+    }
+}
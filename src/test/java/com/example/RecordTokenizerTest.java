@@ -0,0 +1,56 @@
+package com.example;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class RecordTokenizerTest {
+
+    // Fields that use every escape, and backslashes next to pipes and at the ends
+    private static final List<String> FIELDS = List.of(
+            "plain",
+            "12 Main St|Unit 4",
+            "Prefers\nmornings",
+            "C:\\data\\",
+            "\\|",
+            "\\n is not a newline",
+            "|\n\\",
+            "");
+
+    @Test
+    void escapedFieldsRoundTrip() {
+        StringBuilder record = new StringBuilder();
+        for (String field : FIELDS) {
+            if (record.length() > 0) record.append('|');
+            record.append(RecordTokenizer.escape(field));
+        }
+
+        RecordTokenizer fields = new RecordTokenizer().reset(record);
+        assertEquals(FIELDS.size(), fields.fieldCount());
+        List<String> parsed = new ArrayList<>();
+        while (fields.hasNext()) {
+            parsed.add(fields.next());
+        }
+        assertEquals(FIELDS, parsed);
+    }
+
+    @Test
+    void tokenizesOneLineOfAFile() {
+        String contents = "a|b\\|c\nd\\nx|e\\\\\n";
+        int secondLine = contents.indexOf('\n') + 1;
+        RecordTokenizer fields = new RecordTokenizer().reset(contents, secondLine, contents.length() - 1);
+        assertEquals("d\nx", fields.next());
+        assertEquals("e\\", fields.next());
+        assertEquals(null, fields.next());
+    }
+
+    @Test
+    void keepsUnknownEscapesAsWritten() {
+        RecordTokenizer fields = new RecordTokenizer().reset("C:\\temp|x");
+        assertEquals("C:\\temp", fields.next());
+        assertEquals("x", fields.next());
+    }
+}
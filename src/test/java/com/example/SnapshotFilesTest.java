@@ -0,0 +1,66 @@
+package com.example;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class SnapshotFilesTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void readPromotesACompleteTempFile() throws IOException {
+        Path target = dir.resolve("customers.txt");
+        SnapshotFiles.write(target, "c1|Ann\n");
+
+        // A crash after the new generation was written but before it was renamed
+        Path written = dir.resolve("next.txt");
+        SnapshotFiles.write(written, "c1|Ann\nc2|Bob\n");
+        Path tmp = dir.resolve("customers.txt.tmp");
+        Files.move(written, tmp);
+
+        assertEquals("c1|Ann\nc2|Bob\n", SnapshotFiles.read(target));
+        assertFalse(Files.exists(tmp));
+        assertEquals("c1|Ann\nc2|Bob\n", SnapshotFiles.read(target));
+    }
+
+    @Test
+    void readFallsBackToThePreviousGeneration() throws IOException {
+        Path target = dir.resolve("customers.txt");
+        SnapshotFiles.write(target, "c1|Ann\n");
+        SnapshotFiles.write(target, "c1|Ann\nc2|Bob\n");
+        damage(target);
+
+        assertEquals("c1|Ann\n", SnapshotFiles.read(target));
+    }
+
+    @Test
+    void readFailsWhenDamagedWithNoPreviousGeneration() throws IOException {
+        Path target = dir.resolve("customers.txt");
+        SnapshotFiles.write(target, "c1|Ann\n");
+        damage(target);
+
+        assertThrows(IOException.class, () -> SnapshotFiles.read(target));
+    }
+
+    @Test
+    void readReturnsNullForAFileNeverWritten() throws IOException {
+        assertNull(SnapshotFiles.read(dir.resolve("customers.txt")));
+    }
+
+    // Flips a byte in the body, so the footer's checksum no longer matches
+    private static void damage(Path file) throws IOException {
+        byte[] data = Files.readAllBytes(file);
+        data[0] = (byte) (data[0] == 'x' ? 'y' : 'x');
+        Files.write(file, data);
+    }
+}